@@ -0,0 +1,579 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps a replay of every finished game: who played it, on which level and board, the score, and every pair of tiles
+ * removed, in order. Any game can be read back by its id, which is its number in the order the games were added.
+ *
+ * The games are kept in segments, files named by the id of their first game. New games are appended to the one open
+ * segment as records, each its length, the game and a CRC32C checksum, so adding a game never rewrites the games
+ * added before it. A crash while adding a game can at worst leave part of a record at the end, which is cut off the
+ * next time a game is added.
+ *
+ * When the open segment reaches SEGMENT_SIZE bytes it is closed: its games are compressed, in blocks of BLOCK_GAMES,
+ * into a segment file of its own, and a new open segment is started with the next game. Each block is compressed by
+ * itself, with a Deflater primed with a preset dictionary of the bytes games are made of, so even a small block
+ * compresses well. A closed segment starts with an index of the id of the first game in each block and where the
+ * block is in the file, so reading a game only decompresses the block it is in, however big the archive grows. The
+ * closed segment is written to a temporary file and renamed into place before the open segment is deleted, so a crash
+ * while closing leaves one or the other.
+ *
+ * Several copies of the game can share an archive. Each takes an exclusive FileLock on a lock file next to the
+ * segments while adding or reading a game. Only one GameArchive should be opened on the same files by each program.
+ */
+public class GameArchive
+{
+  /** First four bytes of each segment: "MJGA". */
+  private static final int MAGIC = 0x4D4A4741;
+  private static final int VERSION = 1;
+  /** Size in bytes of the header of an open segment: magic number, version and the id of its first game. */
+  private static final int OPEN_HEADER_SIZE = 16;
+  /**
+   * Size in bytes of the header of a closed segment: magic number, version, the id of its first game, the number of
+   * games and the number of blocks.
+   */
+  private static final int CLOSED_HEADER_SIZE = 24;
+  /** Size in bytes of each entry in the index of a closed segment: the first game, position and length of a block. */
+  private static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+  /** Size in bytes at which the open segment is closed. */
+  private static final int SEGMENT_SIZE = 256 * 1024;
+  /** Number of games compressed together in a block of a closed segment. */
+  private static final int BLOCK_GAMES = 32;
+  private static final String OPEN_SUFFIX = ".seg", CLOSED_SUFFIX = ".zseg";
+  /** Preset dictionary every block is compressed with. It must never change, or blocks already written cannot be read. */
+  private static final byte DICTIONARY[] = dictionary();
+
+  /**
+   * One finished game.
+   */
+  public static class Game {
+    private long id;
+    private final String name;
+    private final int level;
+    private final int score;
+    private final long time;
+    private final long seed;
+    private final int moves[];
+
+    /**
+     * Class constructor.
+     * @param name Name of the player.
+     * @param level 1, 2 or 3 for easy, medium or hard.
+     * @param score Final score.
+     * @param time Time the game finished, in milliseconds since 1970.
+     * @param seed Seed the board was shuffled with.
+     * @param moves Array indices of the tiles removed, two for each pair, in the order they were removed.
+     */
+    public Game(String name, int level, int score, long time, long seed, int moves[]) {
+      this.id = -1;
+      this.name = name;
+      this.level = level;
+      this.score = score;
+      this.time = time;
+      this.seed = seed;
+      this.moves = moves;
+    }
+
+    /** Returns the id of the game, or -1 if it has not been added to an archive. */
+    public long getId() { return id; }
+    public String getName() { return name; }
+    public int getLevel() { return level; }
+    public int getScore() { return score; }
+    public long getTime() { return time; }
+    public long getSeed() { return seed; }
+    public int[] getMoves() { return moves.clone(); }
+  }
+
+  private Path directory;
+  /** Start of the name of every segment file. */
+  private String baseName;
+  private FileChannel lockFile;
+  /** The open segment, its length and the number of games in it when it was last read, or null if not known. */
+  private Path openPath;
+  private long openLength;
+  private long openFirst;
+  private int openCount;
+  /** Indexes of the closed segments that have been read, by the id of their first game. */
+  private TreeMap<Long, long[]> indexes = new TreeMap<Long, long[]>();
+
+
+  /**
+   * Class constructor. Opens the archive, creating its lock file if it does not exist. No segments are read until a
+   * game is added or read.
+   * @param fileName Start of the names of the segment files, which get the id of their first game and a suffix.
+   * @throws IOException if the lock file cannot be opened.
+   */
+  public GameArchive(String fileName) throws IOException {
+    Path path = Paths.get(fileName).toAbsolutePath().normalize();
+    directory = path.getParent();
+    baseName = path.getFileName().toString();
+    lockFile = FileChannel.open(Paths.get(path + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+  }
+
+
+  /**
+   * Appends a game to the archive, closing the open segment if it has grown too big. The game is not forced to the
+   * disk, as a replay lost in a crash only costs the replay: the game's score is kept by the ScoreLog.
+   * @param game The game.
+   * @return the id of the game.
+   * @throws IOException if the game cannot be written.
+   */
+  public synchronized long add(Game game) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    write(game, out);
+    out.flush();
+    ByteBuffer record = ByteBuffer.wrap(record(bytes.toByteArray()));
+
+    FileLock lock = lockFile.lock();
+    try {
+      findOpenSegment();
+      FileChannel segment = FileChannel.open(openPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      try {
+        if (openLength == 0) {
+          ByteBuffer header = ByteBuffer.allocate(OPEN_HEADER_SIZE);
+          header.putInt(MAGIC).putInt(VERSION).putLong(openFirst).flip();
+          while (header.hasRemaining()) {
+            segment.write(header, header.position());
+          }
+          openLength = OPEN_HEADER_SIZE;
+        }
+        segment.truncate(openLength); // cuts off any part of a record a stopped game left
+        while (record.hasRemaining()) {
+          segment.write(record, openLength + record.position());
+        }
+      } finally {
+        segment.close();
+      }
+      openLength += record.limit();
+      game.id = openFirst + openCount;
+      openCount++;
+      if (openLength >= SEGMENT_SIZE) {
+        closeSegment();
+      }
+      return game.id;
+    } finally {
+      lock.release();
+    }
+  }
+
+
+  /**
+   * Reads a game from the archive.
+   * @param id The id of the game.
+   * @return the game, or <code>null</code> if there is no game with the id or its record is damaged.
+   * @throws IOException if the archive cannot be read.
+   */
+  public synchronized Game get(long id) throws IOException {
+    if (id < 0) return null;
+    FileLock lock = lockFile.lock();
+    try {
+      findOpenSegment();
+      if (id >= openFirst) {
+        if (id >= openFirst + openCount) return null;
+        ArrayList<byte[]> games = readOpenSegment(openPath);
+        return games.size() > id - openFirst ? read(games.get((int) (id - openFirst)), id) : null;
+      }
+
+      Map.Entry<Long, long[]> segment = indexes.floorEntry(id);
+      if (segment == null || id >= segment.getKey() + segment.getValue()[0]) return null;
+      long index[] = segment.getValue();
+      // index[0] is the number of games, then each block has three entries: its first game, position and length
+      int block = (int) ((id - segment.getKey()) / BLOCK_GAMES);
+      FileChannel file = FileChannel.open(closedPath(segment.getKey()), StandardOpenOption.READ);
+      try {
+        ByteBuffer compressed = ByteBuffer.allocate((int) index[3 * block + 3]);
+        while (compressed.hasRemaining()) {
+          if (file.read(compressed, index[3 * block + 2] + compressed.position()) < 0) throw new EOFException();
+        }
+        ByteBuffer games = ByteBuffer.wrap(inflate(compressed.array()));
+        for (long skip = id - index[3 * block + 1]; skip > 0; skip--) {
+          games.position(games.position() + 4 + games.getInt(games.position()) + 4);
+        }
+        return read(readRecord(games), id);
+      } finally {
+        file.close();
+      }
+    } finally {
+      lock.release();
+    }
+  }
+
+
+  /**
+   * Returns the number of games in the archive.
+   * @throws IOException if the archive cannot be read.
+   */
+  public synchronized long getGameCount() throws IOException {
+    FileLock lock = lockFile.lock();
+    try {
+      findOpenSegment();
+      return openFirst + openCount;
+    } finally {
+      lock.release();
+    }
+  }
+
+
+  /**
+   * Closes the lock file.
+   */
+  public void close() throws IOException {
+    lockFile.close();
+  }
+
+
+  /**
+   * Finds the open segment and the number of games in it, reading the indexes of any segments other copies of the
+   * game have closed. If there is no open segment, the next one is named, to be created by add(). Called with the
+   * file lock held.
+   */
+  private void findOpenSegment() throws IOException {
+    // An open segment not started yet is still next only if no other copy of the game has started, filled and closed
+    // it since, leaving a closed segment with the same first game.
+    if (openPath != null && (openLength == 0
+        ? !Files.exists(openPath) && !Files.exists(closedPath(openFirst))
+        : Files.exists(openPath) && Files.size(openPath) == openLength)) return;
+
+    TreeMap<Long, Path> open = new TreeMap<Long, Path>();
+    DirectoryStream<Path> files = Files.newDirectoryStream(directory, baseName + ".*");
+    try {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        boolean closed = name.endsWith(CLOSED_SUFFIX);
+        if (!closed && !name.endsWith(OPEN_SUFFIX)) continue; // the lock file or a temporary file
+        long first;
+        try {
+          first = Long.parseLong(name.substring(baseName.length() + 1, name.length() - (closed ? CLOSED_SUFFIX : OPEN_SUFFIX).length()));
+        } catch (NumberFormatException e) {
+          continue;
+        }
+        if (!closed) {
+          open.put(first, file);
+        } else if (!indexes.containsKey(first)) {
+          indexes.put(first, readIndex(file));
+        }
+      }
+    } finally {
+      files.close();
+    }
+    for (Long first : open.keySet()) {
+      if (indexes.containsKey(first)) { // a copy of the game stopped after closing the segment and before deleting it
+        Files.deleteIfExists(open.get(first));
+      }
+    }
+    open.keySet().removeAll(indexes.keySet());
+
+    if (!open.isEmpty()) {
+      openFirst = open.lastKey();
+      openPath = open.lastEntry().getValue();
+      ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(openPath));
+      if (records.remaining() < OPEN_HEADER_SIZE) { // a copy of the game stopped while starting the segment
+        openCount = 0;
+        openLength = 0;
+      } else {
+        openCount = readOpenSegment(records).size();
+        openLength = records.position();
+      }
+    } else {
+      Map.Entry<Long, long[]> last = indexes.lastEntry();
+      openFirst = last == null ? 0 : last.getKey() + last.getValue()[0];
+      openPath = directory.resolve(baseName + "." + openFirst + OPEN_SUFFIX);
+      openCount = 0;
+      openLength = 0;
+    }
+  }
+
+
+  /**
+   * Reads the games of an open segment.
+   * @return the games, up to the first record that is cut short or damaged.
+   */
+  private ArrayList<byte[]> readOpenSegment(Path path) throws IOException {
+    return readOpenSegment(ByteBuffer.wrap(Files.readAllBytes(path)));
+  }
+
+
+  /**
+   * Reads the games of an open segment, leaving the buffer's position after the last whole record.
+   * @return the games, up to the first record that is cut short or damaged.
+   * @throws IOException if the segment is not an open segment of the archive.
+   */
+  private static ArrayList<byte[]> readOpenSegment(ByteBuffer records) throws IOException {
+    if (records.remaining() < OPEN_HEADER_SIZE || records.getInt() != MAGIC || records.getInt() != VERSION) {
+      throw new IOException("A game archive segment is damaged.");
+    }
+    records.getLong();
+    ArrayList<byte[]> games = new ArrayList<byte[]>();
+    while (true) {
+      int start = records.position();
+      byte game[] = readRecord(records);
+      if (game == null) {
+        records.position(start);
+        return games;
+      }
+      games.add(game);
+    }
+  }
+
+
+  /**
+   * Makes a record of a game: its length, the game and the checksum of both.
+   */
+  private static byte[] record(byte game[]) {
+    ByteBuffer record = ByteBuffer.allocate(4 + game.length + 4);
+    record.putInt(game.length).put(game);
+    record.putInt(checksum(record.array(), 0, 4 + game.length));
+    return record.array();
+  }
+
+
+  /**
+   * Reads the record at the buffer's position.
+   * @return the game in the record, or <code>null</code> if the record is cut short or damaged.
+   */
+  private static byte[] readRecord(ByteBuffer records) {
+    if (records.remaining() < 8) return null;
+    int start = records.position();
+    int length = records.getInt();
+    if (length < 0 || length > records.remaining() - 4) return null;
+    byte game[] = new byte [length];
+    records.get(game);
+    if (records.getInt() != checksum(records.array(), records.arrayOffset() + start, 4 + length)) return null;
+    return game;
+  }
+
+
+  /**
+   * Compresses the open segment into a closed segment and deletes it. Called with the file lock held.
+   */
+  private void closeSegment() throws IOException {
+    ArrayList<byte[]> games = readOpenSegment(openPath);
+    int numBlocks = (games.size() + BLOCK_GAMES - 1) / BLOCK_GAMES;
+    ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    ByteBuffer header = ByteBuffer.allocate(CLOSED_HEADER_SIZE + numBlocks * INDEX_ENTRY_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).putLong(openFirst).putInt(games.size()).putInt(numBlocks);
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      for (int block = 0; block < numBlocks; block++) {
+        records.reset();
+        for (int i = block * BLOCK_GAMES; i < Math.min(games.size(), (block + 1) * BLOCK_GAMES); i++) {
+          records.write(record(games.get(i)));
+        }
+        byte compressed[] = deflate(deflater, records.toByteArray());
+        header.putLong(openFirst + block * BLOCK_GAMES).putLong(header.capacity() + blocks.size()).putInt(compressed.length);
+        blocks.write(compressed);
+      }
+    } finally {
+      deflater.end();
+    }
+    header.flip();
+
+    Path closedPath = closedPath(openFirst);
+    Path temp = Paths.get(closedPath + "." + ProcessHandle.current().pid() + ".tmp");
+    FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      ByteBuffer body = ByteBuffer.wrap(blocks.toByteArray());
+      while (header.hasRemaining()) {
+        out.write(header);
+      }
+      while (body.hasRemaining()) {
+        out.write(body);
+      }
+      out.force(false); // the rename must not reach the disk before the contents do
+    } finally {
+      out.close();
+    }
+    Files.move(temp, closedPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    indexes.put(openFirst, readIndex(closedPath));
+    Files.delete(openPath);
+    openFirst += games.size();
+    openPath = directory.resolve(baseName + "." + openFirst + OPEN_SUFFIX);
+    openCount = 0;
+    openLength = 0;
+  }
+
+
+  /**
+   * Reads the index of a closed segment.
+   * @return the number of games in the segment, then for each block the id of its first game, and its position and
+   *         length in the file.
+   */
+  private static long[] readIndex(Path path) throws IOException {
+    FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(CLOSED_HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (file.read(header, header.position()) < 0) throw new EOFException(path.getFileName() + " is cut short.");
+      }
+      header.flip();
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException(path.getFileName() + " is not a game archive segment.");
+      header.getLong();
+      int count = header.getInt();
+      int numBlocks = header.getInt();
+      ByteBuffer entries = ByteBuffer.allocate(numBlocks * INDEX_ENTRY_SIZE);
+      while (entries.hasRemaining()) {
+        if (file.read(entries, CLOSED_HEADER_SIZE + entries.position()) < 0) throw new EOFException(path.getFileName() + " is cut short.");
+      }
+      entries.flip();
+      long index[] = new long [1 + 3 * numBlocks];
+      index[0] = count;
+      for (int i = 1; i < index.length; i += 3) {
+        index[i] = entries.getLong();
+        index[i + 1] = entries.getLong();
+        index[i + 2] = entries.getInt();
+      }
+      return index;
+    } finally {
+      file.close();
+    }
+  }
+
+
+  /**
+   * Returns the path of the closed segment whose first game has an id.
+   */
+  private Path closedPath(long first) {
+    return directory.resolve(baseName + "." + first + CLOSED_SUFFIX);
+  }
+
+
+  /**
+   * Writes a game: the time, seed, level, score and name, then the number of tiles removed and their array indices,
+   * one byte each, as there are 144 tiles on the board. They are most of a game, and look random to a compressor, so
+   * writing them in half the space of a short saves more than compressing them does.
+   * @throws IOException if an array index does not fit in a byte.
+   */
+  private static void write(Game game, DataOutputStream out) throws IOException {
+    out.writeLong(game.time);
+    out.writeLong(game.seed);
+    out.writeByte(game.level);
+    out.writeInt(game.score);
+    out.writeUTF(game.name);
+    out.writeShort(game.moves.length);
+    for (int i = 0; i < game.moves.length; i++) {
+      if (game.moves[i] < 0 || game.moves[i] > 255) throw new IOException("Tile " + game.moves[i] + " cannot be archived.");
+      out.writeByte(game.moves[i]);
+    }
+  }
+
+
+  /**
+   * Reads a game written by write.
+   * @return the game, or <code>null</code> if it is damaged.
+   */
+  private static Game read(byte bytes[], long id) {
+    if (bytes == null) return null;
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    try {
+      long time = in.readLong();
+      long seed = in.readLong();
+      int level = in.readByte();
+      int score = in.readInt();
+      String name = in.readUTF();
+      int moves[] = new int [in.readUnsignedShort()];
+      for (int i = 0; i < moves.length; i++) {
+        moves[i] = in.readUnsignedByte();
+      }
+      Game game = new Game(name, level, score, time, seed, moves);
+      game.id = id;
+      return game;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+
+  /**
+   * Compresses a block with the preset dictionary.
+   */
+  private static byte[] deflate(Deflater deflater, byte block[]) {
+    deflater.reset();
+    deflater.setDictionary(DICTIONARY);
+    deflater.setInput(block);
+    deflater.finish();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.length / 2);
+    byte buffer[] = new byte [4096];
+    while (!deflater.finished()) {
+      compressed.write(buffer, 0, deflater.deflate(buffer));
+    }
+    return compressed.toByteArray();
+  }
+
+
+  /**
+   * Decompresses a block compressed by deflate.
+   * @throws IOException if the block is damaged.
+   */
+  private static byte[] inflate(byte compressed[]) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      ByteArrayOutputStream block = new ByteArrayOutputStream(compressed.length * 4);
+      byte buffer[] = new byte [4096];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0) {
+          if (inflater.needsDictionary()) {
+            inflater.setDictionary(DICTIONARY);
+          } else if (inflater.needsInput()) {
+            throw new EOFException("A game archive block is cut short.");
+          }
+        }
+        block.write(buffer, 0, length);
+      }
+      return block.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IOException("A game archive block is damaged.", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+
+  /**
+   * Makes the preset dictionary: byte strings that are common in games, so a block can refer back to them from its
+   * first game on. The strings deflate finds most useful go last.
+   */
+  private static byte[] dictionary() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      // the array indices of the tiles, as they are written in the list of tiles removed
+      for (int tile = 0; tile < 144; tile++) {
+        out.writeByte(tile);
+      }
+      // the start of a record, for each level: its length, then the high bytes of a time and a seed
+      for (int level = 1; level <= 3; level++) {
+        out.writeInt(0);
+        out.writeLong(0x0000019000000000L);
+        out.writeLong(0);
+        out.writeByte(level);
+        out.writeInt(0);
+      }
+    } catch (IOException e) { // never thrown writing to memory
+    }
+    return bytes.toByteArray();
+  }
+
+
+  /**
+   * Returns the CRC32C checksum of part of an array.
+   */
+  private static int checksum(byte bytes[], int start, int length) {
+    CRC32C crc = new CRC32C();
+    crc.update(bytes, start, length);
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,154 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Checks that several copies of the game can add games to one GameArchive without any two getting the same id, even
+ * when one of them sits idle while the others fill and close segments.
+ *
+ * Opens the archive in this process and reads its game count, so this copy knows where the open segment is, and then
+ * starts a number of writer processes that each add games as fast as they can, enough to close several segments,
+ * and waits for them to finish. This copy, which has been idle all along, then adds one more game of its own. Each
+ * writer adds its games as its own player, with the scores 0, 1, 2 and so on, so afterwards every id must read back
+ * as a different game, every player must have exactly one game with each score, and the idle copy's game must have
+ * the next id.
+ *
+ * Run with: java GameArchiveStressTest [processes [games]]
+ * Prints what it found and exits with status 1 if any game was lost, damaged or given an id already used.
+ */
+public class GameArchiveStressTest
+{
+  private static final int LEVEL = 1;
+  /** Number of moves in each game, as in a cleared board of 144 tiles. */
+  private static final int MOVES = 144;
+  /** Longest time to wait for a writer to finish, in milliseconds. */
+  private static final long TIMEOUT = 120000;
+
+
+  public static void main(String args[]) throws Exception {
+    if (args.length > 0 && args[0].equals("--writer")) {
+      write(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+      return;
+    }
+
+    int processes = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+    int games = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    Path directory = Files.createTempDirectory("GameArchiveStressTest");
+    String archiveName = directory.resolve("Games").toString();
+
+    GameArchive idle = new GameArchive(archiveName);
+    idle.getGameCount();
+
+    long start = System.nanoTime();
+    ArrayList<Process> writers = new ArrayList<Process>();
+    for (int p = 0; p < processes; p++) {
+      ProcessBuilder builder = new ProcessBuilder(
+        new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath(),
+        "-cp", System.getProperty("java.class.path"), "GameArchiveStressTest",
+        "--writer", archiveName, String.valueOf(p), String.valueOf(games));
+      builder.inheritIO();
+      writers.add(builder.start());
+    }
+    boolean failed = false;
+    for (int p = 0; p < processes; p++) {
+      if (writers.get(p).waitFor() != 0) {
+        System.out.println("Writer " + p + " failed.");
+        failed = true;
+      }
+    }
+    long expected = (long) processes * games;
+    System.out.println(processes + " processes added " + expected + " games in " + (System.nanoTime() - start) / 1000000
+      + " ms.");
+
+    long id = idle.add(game("Idle", 0));
+    if (id != expected) {
+      System.out.println("The idle copy added its game as " + id + ", expected " + expected + ".");
+      failed = true;
+    }
+    idle.close();
+    failed |= !check(archiveName, processes, games);
+
+    File files[] = directory.toFile().listFiles();
+    for (int i = 0; i < files.length; i++) {
+      files[i].delete();
+    }
+    directory.toFile().delete();
+    System.out.println(failed ? "FAILED" : "OK");
+    System.exit(failed ? 1 : 0);
+  }
+
+
+  /**
+   * A writer process: adds the games 0 to games - 1 for one player.
+   */
+  private static void write(String archiveName, int process, int games) throws Exception {
+    GameArchive archive = new GameArchive(archiveName);
+    for (int i = 0; i < games; i++) {
+      archive.add(game(playerName(process), i));
+    }
+    archive.close();
+    System.exit(0);
+  }
+
+
+  /**
+   * Opens the archive afresh and checks that every game is there, each once, and nothing else.
+   * @return <code>false</code> if any were lost, damaged or added twice.
+   */
+  private static boolean check(String archiveName, int processes, int games) throws Exception {
+    GameArchive archive = new GameArchive(archiveName);
+    boolean ok = true;
+    long expected = (long) processes * games + 1;
+    if (archive.getGameCount() != expected) {
+      System.out.println(archive.getGameCount() + " games, expected " + expected + ".");
+      ok = false;
+    }
+    boolean seen[][] = new boolean [processes][games];
+    boolean idleSeen = false;
+    for (long id = 0; id < archive.getGameCount(); id++) {
+      GameArchive.Game game = archive.get(id);
+      if (game == null || game.getId() != id || game.getMoves().length != MOVES) {
+        System.out.println("Game " + id + " is missing or damaged.");
+        ok = false;
+        continue;
+      }
+      if (game.getName().equals("Idle")) {
+        if (idleSeen) {
+          System.out.println("Game " + id + " is the idle copy's game again.");
+          ok = false;
+        }
+        idleSeen = true;
+        continue;
+      }
+      int process = Integer.parseInt(game.getName().substring(1));
+      if (seen[process][game.getScore()]) {
+        System.out.println("Game " + id + " is " + game.getName() + "'s game " + game.getScore() + " again.");
+        ok = false;
+      }
+      seen[process][game.getScore()] = true;
+    }
+    archive.close();
+    if (ok) {
+      System.out.println("All " + expected + " games found, each once.");
+    }
+    return ok;
+  }
+
+
+  /**
+   * Makes a game that removes every tile in order.
+   */
+  private static GameArchive.Game game(String player, int score) {
+    int moves[] = new int [MOVES];
+    for (int i = 0; i < MOVES; i++) {
+      moves[i] = i;
+    }
+    return new GameArchive.Game(player, LEVEL, score, System.currentTimeMillis(), score, moves);
+  }
+
+
+  private static String playerName(int process) {
+    return "P" + process;
+  }
+}
@@ -0,0 +1,195 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Statistics of a set of games: how many there were, how many cleared the board, and their mean, best and
+ * percentile scores.
+ *
+ * The statistics are updated as each game is added, so reading a total is O(1) and a percentile reads each bucket once.
+ * Percentiles come from a histogram of scores whose buckets grow by a fixed ratio, GAMMA, like a DDSketch: a score is
+ * counted in bucket k when it is above GAMMA^(k-2) and at most GAMMA^(k-1), and a percentile read from a bucket is
+ * within 2% of the true score. Scores of up to 100000 need fewer than 300 buckets.
+ *
+ * Two sets of statistics are merged by adding their totals and histograms bucket by bucket, which gives exactly
+ * what adding all the games to one set would, so the statistics of several levels can be merged when they are read.
+ */
+public class GameStats
+{
+  /** Ratio between the upper bounds of neighbouring buckets. */
+  private static final double GAMMA = 1.04;
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+
+  private long games;
+  /** Number of games in which every tile was removed. */
+  private long cleared;
+  private long totalScore;
+  private int bestScore;
+  /** Number of games whose length and number of moves are known, and their totals. */
+  private long timedGames;
+  private long totalDuration;
+  private long totalMoves;
+  /** Number of games in each bucket. Bucket 0 holds scores of 0 or less. */
+  private long buckets[] = new long [0];
+
+
+  /**
+   * Class constructor. Creates statistics of no games.
+   */
+  public GameStats() {
+  }
+
+
+  /**
+   * Class constructor. Creates a copy of a set of statistics.
+   * @param stats The statistics to copy.
+   */
+  public GameStats(GameStats stats) {
+    merge(stats);
+  }
+
+
+  /**
+   * Adds a game.
+   * @param s The score of the game.
+   */
+  public void add(ScoreLog.Score s) {
+    if (games == 0 || s.getScore() > bestScore) bestScore = s.getScore();
+    games++;
+    totalScore += s.getScore();
+    if (s.getTilesLeft() == 0) cleared++;
+    if (s.getDuration() > 0) {
+      timedGames++;
+      totalDuration += s.getDuration();
+      totalMoves += s.getMoves();
+    }
+    int bucket = bucket(s.getScore());
+    if (bucket >= buckets.length) {
+      long grown[] = new long [bucket + 1];
+      System.arraycopy(buckets, 0, grown, 0, buckets.length);
+      buckets = grown;
+    }
+    buckets[bucket]++;
+  }
+
+
+  /**
+   * Adds the games of another set of statistics to these.
+   * @param stats The statistics to add.
+   */
+  public void merge(GameStats stats) {
+    if (stats.games == 0) return;
+    if (games == 0 || stats.bestScore > bestScore) bestScore = stats.bestScore;
+    games += stats.games;
+    cleared += stats.cleared;
+    totalScore += stats.totalScore;
+    timedGames += stats.timedGames;
+    totalDuration += stats.totalDuration;
+    totalMoves += stats.totalMoves;
+    if (stats.buckets.length > buckets.length) {
+      long grown[] = new long [stats.buckets.length];
+      System.arraycopy(buckets, 0, grown, 0, buckets.length);
+      buckets = grown;
+    }
+    for (int i = 0; i < stats.buckets.length; i++) {
+      buckets[i] += stats.buckets[i];
+    }
+  }
+
+
+  /**
+   * Finds the bucket a score is counted in.
+   */
+  private static int bucket(int score) {
+    return score <= 0 ? 0 : 1 + (int) Math.ceil(Math.log(score) / LOG_GAMMA - 1e-9);
+  }
+
+
+  public long getGames() { return games; }
+  public long getCleared() { return cleared; }
+  /** Returns the best score, or 0 if there are no games. */
+  public int getBestScore() { return bestScore; }
+
+
+  /**
+   * Returns the mean score, or 0 if there are no games.
+   */
+  public double getMeanScore() {
+    return games == 0 ? 0 : totalScore / (double) games;
+  }
+
+
+  /**
+   * Returns the mean length of a game in milliseconds, or 0 if no game lengths are known.
+   */
+  public long getMeanDuration() {
+    return timedGames == 0 ? 0 : totalDuration / timedGames;
+  }
+
+
+  /**
+   * Returns the mean number of pairs removed in a game, or 0 if no numbers of moves are known.
+   */
+  public double getMeanMoves() {
+    return timedGames == 0 ? 0 : totalMoves / (double) timedGames;
+  }
+
+
+  /**
+   * Estimates a percentile of the scores, to within 2%.
+   * @param fraction The percentile as a fraction: 0.5 for the median, 0.9 for the 90th percentile.
+   * @return the estimate, or 0 if there are no games.
+   */
+  public int getPercentile(double fraction) {
+    if (games == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(fraction * games));
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        // the value a bucket stands for is the one whose error is the same fraction of either bound
+        int estimate = i == 0 ? 0 : (int) Math.round(2 * Math.pow(GAMMA, i - 1) / (GAMMA + 1));
+        return Math.min(estimate, bestScore);
+      }
+    }
+    return bestScore;
+  }
+
+
+  /**
+   * Writes the statistics for a checkpoint.
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeLong(games);
+    out.writeLong(cleared);
+    out.writeLong(totalScore);
+    out.writeInt(bestScore);
+    out.writeLong(timedGames);
+    out.writeLong(totalDuration);
+    out.writeLong(totalMoves);
+    out.writeInt(buckets.length);
+    for (int i = 0; i < buckets.length; i++) {
+      out.writeLong(buckets[i]);
+    }
+  }
+
+
+  /**
+   * Reads statistics written by write.
+   */
+  public static GameStats read(ByteBuffer buffer) {
+    GameStats stats = new GameStats();
+    stats.games = buffer.getLong();
+    stats.cleared = buffer.getLong();
+    stats.totalScore = buffer.getLong();
+    stats.bestScore = buffer.getInt();
+    stats.timedGames = buffer.getLong();
+    stats.totalDuration = buffer.getLong();
+    stats.totalMoves = buffer.getLong();
+    stats.buckets = new long [buffer.getInt()];
+    for (int i = 0; i < stats.buckets.length; i++) {
+      stats.buckets[i] = buffer.getLong();
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * The highest scores of the games played on one level, and how many games got each score.
+ *
+ * The highest scores are kept in a min-heap of a fixed size, with the lowest of them at the top, so a new score
+ * only has to be compared with the lowest to know whether it makes the board, and replacing it takes O(log n) for a
+ * board of n scores.
+ *
+ * Every game is also counted, by score, in a Fenwick tree (binary indexed tree) over score values. The tree gives
+ * the number of games that scored more than a score in O(log s), where s is the highest score counted, so the rank
+ * of any score among all the games played can be found without keeping or sorting the games themselves. The tree
+ * doubles in size when a score higher than it can count is added.
+ */
+public class Leaderboard
+{
+  /** Orders scores lowest first. Of equal scores, the one that finished first is lower. */
+  private static final Comparator<ScoreLog.Score> LOWEST_FIRST = new Comparator<ScoreLog.Score>() {
+    public int compare(ScoreLog.Score a, ScoreLog.Score b) {
+      if (a.getScore() != b.getScore()) return a.getScore() < b.getScore() ? -1 : 1;
+      return Long.compare(a.getTime(), b.getTime());
+    }
+  };
+  /** Number of scores the tree can count before it first has to grow. */
+  private static final int INITIAL_SCORES = 1 << 14;
+  /**
+   * Highest score the tree counts as itself. Higher scores are counted as this one, so a corrupt or hand-edited
+   * score cannot make the tree grow without bound. A real game scores far less.
+   */
+  public static final int MAX_SCORE = (1 << 20) - 1;
+
+  private int size;
+  /** The highest scores, lowest first. */
+  private PriorityQueue<ScoreLog.Score> top;
+  /** Number of games with each score. */
+  private int counts[] = new int [INITIAL_SCORES];
+  /** Fenwick tree over counts: tree[i] is the number of games with a score from i - (i & -i) to i - 1. */
+  private long tree[] = new long [INITIAL_SCORES + 1];
+  private long games;
+
+
+  /**
+   * Class constructor. Creates an empty board.
+   * @param size Number of highest scores kept.
+   */
+  public Leaderboard(int size) {
+    this.size = size;
+    top = new PriorityQueue<ScoreLog.Score>(size + 1, LOWEST_FIRST);
+  }
+
+
+  /**
+   * Class constructor. Creates a copy of a board.
+   * @param board The board to copy.
+   */
+  public Leaderboard(Leaderboard board) {
+    size = board.size;
+    top = new PriorityQueue<ScoreLog.Score>(board.top);
+    counts = board.counts.clone();
+    tree = board.tree.clone();
+    games = board.games;
+  }
+
+
+  /**
+   * Adds the score of a game, counting it and keeping it if it is one of the highest.
+   * @param s The score.
+   */
+  public void add(ScoreLog.Score s) {
+    addCount(s.getScore(), 1);
+    addTop(s);
+  }
+
+
+  /**
+   * Counts games with a score without offering them to the highest scores. Used to restore a saved board.
+   * @param score The score. Scores below 0 are counted as 0, and scores above MAX_SCORE as MAX_SCORE.
+   * @param count Number of games.
+   */
+  public void addCount(int score, int count) {
+    score = Math.min(Math.max(0, score), MAX_SCORE);
+    if (score >= counts.length) {
+      grow(score);
+    }
+    counts[score] += count;
+    for (int i = score + 1; i < tree.length; i += i & -i) {
+      tree[i] += count;
+    }
+    games += count;
+  }
+
+
+  /**
+   * Keeps a score if it is one of the highest, without counting it. Used to restore a saved board.
+   * @param s The score.
+   */
+  public void addTop(ScoreLog.Score s) {
+    if (top.size() < size) {
+      top.add(s);
+    } else if (size > 0 && LOWEST_FIRST.compare(s, top.peek()) > 0) {
+      top.poll();
+      top.add(s);
+    }
+  }
+
+
+  /**
+   * Makes the tree big enough to count a score, rebuilding it from the counts in O(s).
+   * @param score The score, at most MAX_SCORE.
+   */
+  private void grow(int score) {
+    int length = counts.length;
+    while (length <= score) {
+      // never past MAX_SCORE + 1, so the length cannot overflow
+      length = Math.min(length * 2, MAX_SCORE + 1);
+    }
+    int oldCounts[] = counts;
+    counts = new int [length];
+    System.arraycopy(oldCounts, 0, counts, 0, oldCounts.length);
+    tree = new long [length + 1];
+    for (int i = 1; i <= length; i++) {
+      tree[i] += counts[i - 1];
+      int parent = i + (i & -i);
+      if (parent <= length) {
+        tree[parent] += tree[i];
+      }
+    }
+  }
+
+
+  /**
+   * Finds where a score ranks among all the games played.
+   * @param score The score.
+   * @return 1 plus the number of games that scored more.
+   */
+  public long getRank(int score) {
+    if (score < 0) return games + 1;
+    return games + 1 - countAtMost(Math.min(score, counts.length - 1));
+  }
+
+
+  /**
+   * Returns the number of games with a score of at most <code>score</code>.
+   */
+  private long countAtMost(int score) {
+    long count = 0;
+    for (int i = score + 1; i > 0; i -= i & -i) {
+      count += tree[i];
+    }
+    return count;
+  }
+
+
+  /**
+   * Returns the number of games played.
+   */
+  public long getGameCount() {
+    return games;
+  }
+
+
+  /**
+   * Returns the highest score counted.
+   * @return the score, or -1 if no games have been played.
+   */
+  public int getHighestCounted() {
+    for (int score = counts.length - 1; score >= 0; score--) {
+      if (counts[score] != 0) return score;
+    }
+    return -1;
+  }
+
+
+  /**
+   * Returns the number of games with a score.
+   * @param score The score.
+   */
+  public int getCount(int score) {
+    return score >= 0 && score < counts.length ? counts[score] : 0;
+  }
+
+
+  /**
+   * Returns the highest scores.
+   * @param count Largest number of scores to return.
+   * @return a list of up to <code>count</code> scores, highest first.
+   */
+  public ArrayList<ScoreLog.Score> getTopScores(int count) {
+    ArrayList<ScoreLog.Score> scores = new ArrayList<ScoreLog.Score>(top);
+    Collections.sort(scores, Collections.reverseOrder(LOWEST_FIRST));
+    if (scores.size() > count) {
+      scores.subList(count, scores.size()).clear();
+    }
+    return scores;
+  }
+}
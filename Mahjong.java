@@ -1,7 +1,14 @@
 import java.io.*;
 import hsa.*;
 import java.awt.*;
-import java.util.StringTokenizer;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * @author Joshua Yuan
@@ -15,17 +22,32 @@ public class Mahjong
   private String choice; // menu choice
   private String playerName;
   private char key; // key user has pressed
-  /** All the tiles needed for the board. The tiles are stored in an order that is randomly-generated each time a new game is played. */
-  private Image randTile[];
+  /**
+   * All the tiles needed for the board, as the index in picture of each tile's image. The tiles are stored in an order that is
+   * randomly-generated each time a new game is played.
+   */
+  private int randTile[];
   /** Contains all the tile images. */
   private Image picture[] = new Image[NUM_IMAGES];
   private static final int NUM_IMAGES = 42;
+  /** Index in picture of the first image of each suit. */
+  private static final int CHARACTER = 0, BAMBOO = 9, CIRCLE = 18, WIND = 27, SEASON = 31, FLOWER = 35, DRAGON = 39;
+  /** The images being decoded, in the order of picture, until waitForImages puts them there. */
+  private ArrayList<Future<BufferedImage>> pictureLoads;
   /** tileLoc [0][] stores the x-coordinates of the tiles, and tileLoc [1][] stores the y-coordinates of the tile. */
   private int tileLoc[] [];
   /** 1 if the user selects easy, 2 if the user selects medium, and 3 if the user selects hard. */
   private int level;
   /** Current score of the active game. */
   private int score;
+  /** Seed the active game's board was shuffled with. Saved with the score, since it deals the same board again. */
+  private long seed;
+  /** Number of pairs removed in the active game. */
+  private int moves;
+  /** Time the active game started, in milliseconds since 1970. */
+  private long startTime;
+  /** Array indices of the tiles removed in the active game, two for each pair, in order. The first 2 * moves are used. */
+  private int journal[];
   /** Number of tiles that should be used for generating the board. Depends on the user's selected level. */
   private int numTiles;
   /**
@@ -34,11 +56,49 @@ public class Mahjong
    * the second tile the user selects.
    */
   private int index[] = new int [2];
+  /** Plays the tile removal and hint animations. */
+  private TileAnimator animator;
+  /** Size of the screen relative to the 800 by 510 pixel board that all coordinates are given for. */
+  private double scale;
+  /** Tile images scaled to the size of the screen. */
+  private SpriteCache sprites;
+  /** Array indices of the tiles in the order they are drawn: bottom layer first, then by row, then by column. */
+  private int drawOrder[];
+  /** Every score saved, and the highest of them. null if the log could not be opened. */
+  private ScoreLog scoreLog;
+  /** Replays of every finished game, or null if the archive could not be opened. */
+  private GameArchive gameArchive;
+  /** The game in progress, saved after every move, or null if the file could not be opened or another copy of the game has it. */
+  private SavedGame savedGame;
+  /** The saved game the player chose to resume, until display() resumes it. */
+  private SavedGame.Snapshot resumed;
+  /** Finds the tile under a mouse press, in board coordinates. Removed tiles are taken out of it. */
+  private TileHitIndex hitIndex;
+  /** The board as last drawn by drawBoard, without any selection rectangles. Used to erase them. */
+  private BufferedImage boardImage;
+  /** First array index of each layer of tiles, bottom layer first. */
+  private static final int LAYER_START[] = {0, 86, 122, 138, 143};
   
   private static final Font BUTTON_FONT = new Font ("Cooper Black", Font.PLAIN, 26);
   private static final Color BACKGROUND_COLOUR = new Color (162, 252, 162);
   private static final Color LIGHT_BLUE = new Color (0, 180, 255);
-  private static final String FILE_NAME = "HighScores.dat";
+  /** The score of every game played is kept in this log. */
+  private static final String SCORE_FILE_NAME = "HighScores.log";
+  /** Old text file of the top 10 scores, copied into the log the first time the game is run. */
+  private static final String LEGACY_SCORE_FILE_NAME = "HighScores.dat";
+  /** Start of the names of the game archive's files. */
+  private static final String GAME_ARCHIVE_NAME = "Games";
+  private static final String SAVED_GAME_FILE_NAME = "SavedGame.dat";
+  /** Number of highest scores kept for each level. The high scores screen shows the first 10. */
+  private static final int LEADERBOARD_SIZE = 1000;
+  /** Names of the levels, by level number. Level 0 holds scores from before levels were recorded. */
+  private static final String LEVEL_NAMES[] = {"Earlier Games", "Easy", "Medium", "Hard"};
+  /** Size in pixels of the board when drawn at its original size. All coordinates are given for this size. */
+  private static final int BOARD_WIDTH = 800, BOARD_HEIGHT = 510;
+  /** Font size of the console text when the board is drawn at its original size. */
+  private static final int FONT_SIZE = 14;
+  /** Smallest and largest scale that can be asked for. Below half size the text cannot be read. */
+  private static final double MIN_SCALE = 0.5, MAX_SCALE = 4;
     
   /**
    * Draws a thick rectangle. Invoked in selectTiles().
@@ -50,10 +110,151 @@ public class Mahjong
    */
   private void drawThickRect (int x, int y, int width, int height, Color colour)
   {
+    int t = px(3); // the border extends this far either side of the rectangle
+    x = px(x);
+    y = px(y);
+    width = px(width);
+    height = px(height);
     c.setColour (colour);
-    for (int i = -3 ; i <= 3 ; i++)
-      for (int j = -3 ; j <= 3 ; j++)
-      c.drawRect (x + i, y + j, width, height);
+    c.fillRect (x - t, y - t, width + 2 * t + 1, 2 * t + 1);
+    c.fillRect (x - t, y + height - t, width + 2 * t + 1, 2 * t + 1);
+    c.fillRect (x - t, y - t, 2 * t + 1, height + 2 * t + 1);
+    c.fillRect (x + width - t, y - t, 2 * t + 1, height + 2 * t + 1);
+  }
+  
+  
+  /**
+   * Converts a coordinate or length on the original 800 by 510 pixel board to pixels on the screen.
+   * @param length Coordinate or length on the original board.
+   * @return the coordinate or length on the screen.
+   */
+  private int px(int length) {
+    return (int) Math.round(length * scale);
+  }
+  
+  
+  /**
+   * Returns a font scaled to the size of the screen.
+   * @param font Font used on the original board.
+   * @return the scaled font.
+   */
+  private Font scaled(Font font) {
+    return font.deriveFont((float) (font.getSize2D() * scale));
+  }
+  
+  
+  /**
+   * Draws all the tiles on the board in drawOrder, using copies of the tile images scaled to the size of the screen.
+   * Tiles that are completely covered by the tiles drawn after them are not drawn at all.
+   * The board is drawn into boardImage, which is then copied to the screen in one go.
+   */
+  private void drawBoard() {
+    ArrayList<Rectangle> above = new ArrayList<Rectangle>(); // tiles drawn after the one being checked
+    boolean visible[] = new boolean [numTiles];
+    Rectangle area = null; // part of the screen covered by tiles
+    
+    // works down from the top tile, so that all the tiles that could cover a tile have been seen before it
+    for (int k = numTiles - 1; k >= 0; k--) {
+      int i = drawOrder[k];
+      if (tileLoc[0][i] == -100) continue; // removed
+      Image sprite = sprites.get(picture[randTile[i]]);
+      Rectangle bounds = new Rectangle(px(tileLoc[0][i]), px(tileLoc[1][i]), sprite.getWidth(null), sprite.getHeight(null));
+      visible[i] = !covered(bounds, above);
+      above.add(bounds);
+      area = (area == null) ? bounds : area.union(bounds);
+    }
+    
+    if (boardImage == null) {
+      boardImage = new BufferedImage(c.getWidth(), c.getHeight(), BufferedImage.TYPE_INT_RGB);
+    }
+    Graphics g = boardImage.getGraphics();
+    g.setColor(BACKGROUND_COLOUR);
+    g.fillRect(0, 0, boardImage.getWidth(), boardImage.getHeight());
+    for (int k = 0; k < numTiles; k++) {
+      int i = drawOrder[k];
+      if (visible[i]) {
+        g.drawImage(sprites.get(picture[randTile[i]]), px(tileLoc[0][i]), px(tileLoc[1][i]), null);
+      }
+    }
+    g.dispose();
+    
+    if (area != null) {
+      restoreBoard(area);
+    }
+  }
+  
+  
+  /**
+   * Copies part of the board, as last drawn by drawBoard, back onto the screen.
+   * @param area The part of the board to copy, in screen pixels.
+   */
+  private void restoreBoard(Rectangle area) {
+    area = area.intersection(new Rectangle(0, 0, boardImage.getWidth(), boardImage.getHeight()));
+    if (!area.isEmpty()) {
+      c.drawImage(boardImage.getSubimage(area.x, area.y, area.width, area.height), area.x, area.y, null);
+    }
+  }
+  
+  
+  /**
+   * Checks whether a rectangle is completely covered by a group of rectangles.
+   * The edges of the rectangles that overlap it divide it into cells, and it is covered if every cell is.
+   * @param r The rectangle to check.
+   * @param others The rectangles that may cover it.
+   * @return true if no part of r can be seen.
+   */
+  private static boolean covered(Rectangle r, ArrayList<Rectangle> others) {
+    ArrayList<Rectangle> overlapping = new ArrayList<Rectangle>();
+    int xs[] = new int [2 * others.size() + 2];
+    int ys[] = new int [2 * others.size() + 2];
+    int n = 0;
+    xs[n] = r.x;
+    ys[n++] = r.y;
+    xs[n] = r.x + r.width;
+    ys[n++] = r.y + r.height;
+    for (Rectangle o : others) {
+      Rectangle overlap = r.intersection(o);
+      if (!overlap.isEmpty()) {
+        overlapping.add(overlap);
+        xs[n] = overlap.x;
+        ys[n++] = overlap.y;
+        xs[n] = overlap.x + overlap.width;
+        ys[n++] = overlap.y + overlap.height;
+      }
+    }
+    if (overlapping.isEmpty()) return false;
+    
+    Arrays.sort(xs, 0, n);
+    Arrays.sort(ys, 0, n);
+    for (int i = 0; i < n - 1; i++) {
+      for (int j = 0; j < n - 1; j++) {
+        if (xs[i] == xs[i + 1] || ys[j] == ys[j + 1]) continue; // empty cell
+        boolean cellCovered = false;
+        for (Rectangle o : overlapping) {
+          if (o.contains(xs[i], ys[j])) {
+            cellCovered = true;
+            break;
+          }
+        }
+        if (!cellCovered) return false;
+      }
+    }
+    return true;
+  }
+  
+  
+  /**
+   * Finds the layer a tile is on, counting the bottom layer as 0.
+   * @param index Array index of the tile.
+   * @return the layer.
+   */
+  private int layerOf(int index) {
+    if (index == 44 && level == 2) return 1; // the medium level moves the 45th tile onto the second layer
+    int layer = 0;
+    while (layer + 1 < LAYER_START.length && index >= LAYER_START[layer + 1]) {
+      layer++;
+    }
+    return layer;
   }
   
   
@@ -62,14 +263,15 @@ public class Mahjong
    * using the '/' key.
    */
   private void mainMenu() {
+    showWriteErrors();
     drawTitle();
     
     c.println("Press 'w' to move up and 's' to move down. Press '/' to enter.");
-    c.setFont(BUTTON_FONT);
-    c.drawString("LEVEL SELECTION", 275, 235);
-    c.drawString("INSTRUCTIONS", 291, 285);
-    c.drawString("HIGH SCORES", 303, 335);
-    c.drawString("EXIT", 365, 385);
+    c.setFont(scaled(BUTTON_FONT));
+    c.drawString("LEVEL SELECTION", px(275), px(235));
+    c.drawString("INSTRUCTIONS", px(291), px(285));
+    c.drawString("HIGH SCORES", px(303), px(335));
+    c.drawString("EXIT", px(365), px(385));
     
     for (int i = 250; i <= 350; i += 50) {
       drawThickRect(200, i, 400, 50, Color.white);   //ouputs four thick yellow rectangles
@@ -96,11 +298,11 @@ public class Mahjong
     c.clear();
     
     c.setColour(BACKGROUND_COLOUR);
-    c.fillRect(0, 0, 799, 599);
+    c.fillRect(0, 0, c.getWidth(), c.getHeight());
     
-    c.setFont(new Font("Chiller", Font.BOLD, 50));
+    c.setFont(scaled(new Font("Chiller", Font.BOLD, 50)));
     c.setColour(Color.black);
-    c.drawString("Mahjong", 325, 50);
+    c.drawString("Mahjong", px(325), px(50));
     
     c.setCursor(5, 1);
     c.setTextBackgroundColour(BACKGROUND_COLOUR);
@@ -131,65 +333,105 @@ public class Mahjong
   
   
   /**
-   * Updates HighScores.dat file by inserting the last score into the appropriate location in the file, if necessary.
+   * Adds the score of the game just finished to the score log, which keeps the high scores up to date.
+   * The score is written in the background; errors writing it are shown by showWriteErrors.
    */
   private void updateHighScores ()
   {
-    final int MAX = 10;      // size of the line array
-    String[] line = new String [MAX];
-    
+    if (scoreLog == null) return; // the log could not be opened, so scores are not saved
+    long now = System.currentTimeMillis();
+    if (!scoreLog.add(new ScoreLog.Score(playerName, level, score, now, seed, numTilesRemaining(tileLoc), moves, (int) (now - startTime)))) {
+      c.message("Your score could not be saved because too many scores are waiting to be written.", "FILE ERROR");
+    }
+  }
+  
+  
+  /**
+   * Adds the game just finished, with every pair of tiles removed, to the game archive, so it can be replayed.
+   */
+  private void archiveGame() {
+    if (gameArchive == null) return; // the archive could not be opened, so games are not kept
     try {
-      BufferedReader input = new BufferedReader(new FileReader(FILE_NAME));
-      String firstLine = input.readLine();
-      
-      // checks for a valid header, and resets the file if none is found
-      if (firstLine == null || !firstLine.equals("Mahjong file verification header.")) {
-        input.close();
-        resetFile();
-        input = new BufferedReader(new FileReader(FILE_NAME));
-        input.readLine();
-      }
-      
-      for (int i = 0; i < MAX; i++) { // initializes values for line[]
-        line[i] = input.readLine();
-        c.println(line[i]);
+      gameArchive.add(new GameArchive.Game(playerName, level, score, System.currentTimeMillis(), seed, Arrays.copyOf(journal, 2 * moves)));
+    } catch (IOException e) {
+      c.message("Your game could not be saved for replay: " + e.getMessage(), "FILE ERROR");
+    }
+  }
+  
+  
+  /**
+   * Saves the game in progress, so it can be resumed if it is left or the program stops.
+   * The game is written in the background; errors writing it are shown by showWriteErrors.
+   */
+  private void saveGame() {
+    if (savedGame == null) return; // the file could not be opened, so games are not saved
+    BitSet onBoard = new BitSet(numTiles);
+    for (int i = 0; i < numTiles; i++) {
+      if (tileLoc[0][i] != -100) {
+        onBoard.set(i);
       }
-      
-      // Inserts the player's name and score if a line between 0 and 10 is null. 
-      // If not, it inserts the information into the proper location and moves all the lines below one line down.
-      for (int i = 0; i < MAX; i++) {
-        // Inserts new info into the file and breaks the loop only if a line between the first and tenth line is empty.
-        if (line[i] == null || line [i].equals ("")) { 
-          line[i] = playerName + " " + score;
-          break;
-        }
-        
-        StringTokenizer tokenizer = new StringTokenizer(line[i]);
-        for (int j = 1; j <= tokenizer.countTokens(); j++) { // runs tokenizer.nextToken () until it reaches the last token
-          tokenizer.nextToken();
-        }
-        // Checks if the player's score is higher than one stored in a line in the file.
-        if (score >= Integer.parseInt(tokenizer.nextToken())) {
-          for (int j = 9; j > i; j--) { // moves all the lines (below the new line) one line down
-            line[j] = line[j - 1];
-          }
-          line[i] = playerName + " " + score;
-          break;
-        }
+    }
+    savedGame.save(new SavedGame.Snapshot(playerName, level, seed, score, System.currentTimeMillis() - startTime, onBoard, Arrays.copyOf(journal, 2 * moves)));
+  }
+  
+  
+  /**
+   * Offers to resume the game that was saved when the last game was left unfinished, if there is one.
+   * @return true if the player chose to resume it, in which case it is kept in resumed.
+   */
+  private boolean askResume() {
+    resumed = (savedGame == null) ? null : savedGame.load();
+    if (resumed == null) return false;
+    drawTitle();
+    c.println(resumed.getName() + ", you have an unfinished " + LEVEL_NAMES[resumed.getLevel()].toLowerCase() + " game with a score of " + 
+              resumed.getScore() + ".\n");
+    c.println("Press 'r' to resume it, or any other key to start a new game.");
+    if (c.getChar() != 'r') {
+      resumed = null;
+    }
+    return resumed != null;
+  }
+  
+  
+  /**
+   * Restores the game the player chose to resume: deals its board again from its seed, then takes off the tiles
+   * that had been removed.
+   */
+  private void resumeGame() {
+    level = resumed.getLevel();
+    playerName = resumed.getName();
+    score = resumed.getScore();
+    drawTitle();
+    generateBoard(resumed.getSeed());
+    BitSet onBoard = resumed.getOnBoard();
+    for (int i = 0; i < numTiles; i++) {
+      if (!onBoard.get(i)) {
+        tileLoc[0][i] = tileLoc[1][i] = -100;
+        hitIndex.remove(i);
       }
-      
-      input.close();
-      
-      PrintWriter output = new PrintWriter(new FileWriter(FILE_NAME));
-      output.println("Mahjong file verification header.");
-      for (int i = 0; i < MAX; i++) { // copies all the contents of the line array into the file
-        if (line[i] != null) {
-          output.println(line[i]);
-        }
+    }
+    int saved[] = resumed.getJournal();
+    journal = Arrays.copyOf(saved, numTiles);
+    moves = saved.length / 2;
+    startTime = System.currentTimeMillis() - resumed.getElapsed(); // time spent away from the game is not counted
+    resumed = null;
+  }
+  
+  
+  /**
+   * Tells the player about any scores the score log, or games the saved game file, has failed to write since it was
+   * last asked.
+   */
+  private void showWriteErrors() {
+    if (scoreLog != null) {
+      for (String error = scoreLog.takeError(); error != null; error = scoreLog.takeError()) {
+        c.message(error, "FILE ERROR");
       }
-      output.close();
     }
-    catch (IOException e) {
+    if (savedGame != null) {
+      for (String error = savedGame.takeError(); error != null; error = savedGame.takeError()) {
+        c.message(error, "FILE ERROR");
+      }
     }
   }
   
@@ -206,39 +448,50 @@ public class Mahjong
   
   
   /**
-   * Imports the 42 images needed for the Mahjong board.
+   * Starts decoding the 42 images needed for the Mahjong board in the background, so that the menu can be used while
+   * they load. waitForImages waits for them before they are first needed.
    */
   private void loadImages() {
-    MediaTracker tracker = new MediaTracker(new Frame()); // allows the pictures to be tracked
-    
-    //initializes the values for the picture array
+    String name[] = new String [NUM_IMAGES];
     for (int i = 0; i <= 8; i++) {
-      picture[i] = Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/character" + (i + 1) + ".png")); //0 to 8 character
-      picture[i + 9] = Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/bamboo" + (i + 1) + ".png")); //9 to 17 bamboo
-      picture[i + 18] = Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/circle" + (i + 1) + ".png")); //18 to 26 circle
+      name[CHARACTER + i] = "character" + (i + 1);
+      name[BAMBOO + i] = "bamboo" + (i + 1);
+      name[CIRCLE + i] = "circle" + (i + 1);
     }
     for (int i = 0; i <= 3; i++) {
-      picture[i + 27] = Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/wind" + (i + 1) + ".png")); //27 to 30 wind
-      picture[i + 31] = Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/season" + (i + 1) + ".png")); //31 to 34 season
-      picture[i + 35] = Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/flower" + (i + 1) + ".png")); //35 to 38 flower
+      name[WIND + i] = "wind" + (i + 1);
+      name[SEASON + i] = "season" + (i + 1);
+      name[FLOWER + i] = "flower" + (i + 1);
     }
     for (int i = 0; i <= 2; i++) {
-      picture[i + 39] = Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/dragon" + (i + 1) + ".png")); //39 to 41 dragon
+      name[DRAGON + i] = "dragon" + (i + 1);
     }
     
-    //Begin tracking of image loading
+    pictureLoads = new ArrayList<Future<BufferedImage>>(NUM_IMAGES);
     for (int i = 0; i < NUM_IMAGES; i++) {
-      tracker.addImage (picture [i], 0);  // Add the picture to the list of images to be tracked
+      pictureLoads.add(SpriteCache.load(getClass().getResource("img/" + name[i] + ".png")));
     }
+  }
+  
+  
+  /**
+   * Waits for the images loadImages started decoding, and puts them in the picture array.
+   * @return <code>false</code> if an image could not be loaded.
+   */
+  private boolean waitForImages() {
+    if (pictureLoads == null) return true; // already loaded
     try {
-      tracker.waitForAll();
-    }
-    catch (InterruptedException e) {
-    }
-    if (tracker.isErrorAny()) { // if error occurs while loading images
-      new Message("Error loading images. Please exit the program.", "ERROR");
-      mainMenu();
+      for (int i = 0; i < NUM_IMAGES; i++) {
+        picture[i] = pictureLoads.get(i).get();
+      }
+    } catch (ExecutionException e) {
+      c.message("Error loading images: " + e.getCause().getMessage() + " Please exit the program.", "ERROR");
+      return false;
+    } catch (InterruptedException e) {
+      return false;
     }
+    pictureLoads = null;
+    return true;
   }
   
   
@@ -253,10 +506,12 @@ public class Mahjong
    * The third if structure prevents more character tiles from appearing if the user selects hard.
    * The fourth if structure prevents the same value from the tile array from occuring more than once in the randTile array.
    * The fifth if structure outputs the 45th tile again for the second tile. This is necessary it would otherwise be covered by the tiles on top.
+   * The board is not drawn; display() draws it once any saved game has been restored onto it.
+   * @param seed Seed to shuffle the tiles with. The same seed and level always deal the same board.
    */
-  private void generateBoard() {
+  private void generateBoard(long seed) {
     int randIndex; // stores the images in a randomized order
-    Image tile[]; // contains the images of the tile in a predefiend order, tile height 51 width 41
+    int tile[]; // contains the picture indices of the tiles in a predefiend order, tile height 51 width 41
     
     // The array below stores the x and y coordinates of the tiles.
     // It is also used to reset the values stored in this.tileLoc, which changes as the user plays the game.
@@ -300,32 +555,51 @@ public class Mahjong
     }
     
     this.tileLoc = tileLoc;
-    tile = new Image[numTiles];
-    randTile = new Image[numTiles];
+    
+    // tiles are drawn bottom layer first, then row by row from the top, then from left to right
+    Integer order[] = new Integer [numTiles];
+    for (int i = 0; i < numTiles; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        if (layerOf(a) != layerOf(b)) return layerOf(a) - layerOf(b);
+        if (tileLoc[1][a] != tileLoc[1][b]) return tileLoc[1][a] - tileLoc[1][b];
+        return tileLoc[0][a] - tileLoc[0][b];
+      }
+    });
+    drawOrder = new int [numTiles];
+    hitIndex = new TileHitIndex(BOARD_WIDTH, BOARD_HEIGHT, numTiles);
+    for (int i = 0; i < numTiles; i++) {
+      drawOrder[i] = order[i];
+      hitIndex.add(drawOrder[i], new Rectangle(tileLoc[0][drawOrder[i]], tileLoc[1][drawOrder[i]], 41, 51));
+    }
+    tile = new int[numTiles];
+    randTile = new int[numTiles];
     //initializes values for the tile array (in order)
     //repeated four times for all levels
     for (int i = 9; i <= 17; i++) {
       for (int j = 0; j <= 3; j++) {
-        tile[4 * (i - 9) + j] = picture[i]; //bamboo repeated four times (picture 9 to 17)
+        tile[4 * (i - 9) + j] = i; //bamboo repeated four times (picture 9 to 17)
       }
     }
     for (int i = 27; i <= 30; i++) {
       for (int j = 0; j <= 3; j++) {
-        tile[4 * (i - 27) + j + 36] = picture[i]; //wind repeated four times (picture 27 to 30)
+        tile[4 * (i - 27) + j + 36] = i; //wind repeated four times (picture 27 to 30)
       }
     }
     for (int i = 39; i <= 41; i++) {
       for (int j = 0; j <= 3; j++) {
-        tile[4 * (i - 39) + j + 52] = picture[i]; //dragon repeated four times (picture 39 to 41)
+        tile[4 * (i - 39) + j + 52] = i; //dragon repeated four times (picture 39 to 41)
       }
     }
     for (int i = 0; i <= 8; i++) {
       for (int j = 0; j <= 1; j++) {
-        tile[2 * i + j + 64] = picture[i]; //character repeated twice (picture 0 to 8)
+        tile[2 * i + j + 64] = i; //character repeated twice (picture 0 to 8)
       }
     }
     for (int i = 31; i <= 34; i++) {
-      tile[i - 31 + 82] = picture[i]; //season not repeated (picture 35 to 38)
+      tile[i - 31 + 82] = i; //season not repeated (picture 35 to 38)
     }
     //end initilization of tile [0] to tile [85]
     
@@ -333,7 +607,7 @@ public class Mahjong
     if (level != 1) {
       for (int i = 18; i <= 26; i++) {
         for (int j = 0; j <= 3; j++) {
-          tile[4 * (i - 18) + j + 86] = picture[i]; //circle repeated four times if the level is medium or hard
+          tile[4 * (i - 18) + j + 86] = i; //circle repeated four times if the level is medium or hard
         }
       }
     }
@@ -342,37 +616,28 @@ public class Mahjong
     if (level == 3) {
       for (int i = 0; i <= 8; i++) {
         for (int j = 0; j <= 1; j++) {
-          tile[2 * i + j + 122] = picture[i]; //character repeated twice again for the hard level (picture 0 to 8)
+          tile[2 * i + j + 122] = i; //character repeated twice again for the hard level (picture 0 to 8)
         }
       }
       for (int i = 35; i <= 38; i++) {
-        tile[i - 35 + 140] = picture[i];
+        tile[i - 35 + 140] = i;
       }
     }
     //end tile array initialization
     
     //initializes values of randTile in a pseudo-random order so board changes each time the user plays
+    this.seed = seed;
+    Random random = new Random(seed);
     int j = 0;
     while (j != numTiles) {
-      randIndex = (int) (Math.random() * numTiles);
-      if (tile[randIndex] != null) {
+      randIndex = random.nextInt(numTiles);
+      if (tile[randIndex] != -1) {
         randTile[j] = tile[randIndex];
-        tile[randIndex] = null;
+        tile[randIndex] = -1;
         j++;
       }
     }
     //end randTile initialization
-    
-    //tile output begins with a delay to simulate a player creating a board
-    for (int i = 0; i < numTiles; i++) {
-      c.drawImage(randTile[i], tileLoc[0][i], tileLoc[1][i], null);
-    }
-    if (level == 2) {
-      c.drawImage(randTile[44], tileLoc[0][44], tileLoc[1][44], null);
-    }
-    //end tile output
-    c.setCursor(4, 1);
-    c.print("Score: 0");
   }
   
   
@@ -380,20 +645,22 @@ public class Mahjong
    * Updates the board by removing the two tiles that the user has matched.
    */
   private void updateBoard() {
+    int removedX[] = {tileLoc[0][index[0]], tileLoc[0][index[1]]};
+    int removedY[] = {tileLoc[1][index[0]], tileLoc[1][index[1]]};
+    
     drawTitle();
     // Changes the x and y coordinates of the removed tiles to -100, so that they no longer appear on the screen.
     for (int i = 0; i < 2; i++) {
       for (int j = 0; j < 2; j++) {
         tileLoc[i][index[j]] = -100;
       }
+      hitIndex.remove(index[i]);
     }
     // Redraws the board
-    for (int i = 0; i < numTiles; i++) {
-      c.drawImage(randTile[i], tileLoc[0][i], tileLoc[1][i], null);
-    }
-    // Draw the 45th tile again if the user is playing the medium level game. Otherwise, it will be covered by the tiles on top.
-    if (level == 2) {
-      c.drawImage(randTile[44], tileLoc[0][44], tileLoc[1][44], null);
+    drawBoard();
+    // The removed tiles fade away on the animator's thread while the user selects the next pair.
+    for (int i = 0; i < 2; i++) {
+      animator.remove(sprites.get(picture[randTile[index[i]]]), px(removedX[i]), px(removedY[i]));
     }
   }
   
@@ -407,10 +674,10 @@ public class Mahjong
     drawTitle();
     c.println("Press 'w' to move up and 's' to move down. Press '/' to enter.");
     
-    c.setFont(BUTTON_FONT);
-    c.drawString("EASY", 362, 260);
-    c.drawString("MEDIUM", 342, 310);
-    c.drawString("HARD", 358, 360);
+    c.setFont(scaled(BUTTON_FONT));
+    c.drawString("EASY", px(362), px(260));
+    c.drawString("MEDIUM", px(342), px(310));
+    c.drawString("HARD", px(358), px(360));
     
     for (int i = 275; i <= 325; i += 50) { // outputs multiple thick rectangles
       drawThickRect(200, i, 400, 50, Color.white);   //ouputs four thick yellow rectangles
@@ -482,22 +749,17 @@ public class Mahjong
    * with the indices of the randTile array.
    * @param index1 Array index of the first tile the user has removed.
    * @param index2 Array index of the second tile the user has removed.
-   * @param randTile Stores the images in the randomized order.
+   * @param randTile Stores the picture indices of the tiles in the randomized order.
    * @return <code>true</code> if the tiles match, <code>false</code> otherwise.
    */
-  private boolean tilesMatch(int index1, int index2, Image[] randTile) {
-    for (int i = 1; i < 5; i++) { // check if the first tile matches any of the season and flower tiles.
-      for (int j = 1; j < 5; j++) {       // check if the second tile matches any of the season and flower tiles
-        // check if the two tiles selected are both flowers or both seasons
-        if (randTile[index1] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/season" + (i) + ".png")) && 
-            randTile[index2] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/season" + (j) + ".png")) || 
-            randTile[index1] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/flower" + (i) + ".png")) && 
-            randTile[index2] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/flower" + (j) + ".png"))) {
-          return true; //returns true of both tiles are seasons or flowers
-        }
-      }
+  private boolean tilesMatch(int index1, int index2, int[] randTile) {
+    int picture1 = randTile[index1], picture2 = randTile[index2];
+    // check if the two tiles selected are both flowers or both seasons
+    if (picture1 >= SEASON && picture1 < SEASON + 4 && picture2 >= SEASON && picture2 < SEASON + 4 || 
+        picture1 >= FLOWER && picture1 < FLOWER + 4 && picture2 >= FLOWER && picture2 < FLOWER + 4) {
+      return true; //returns true of both tiles are seasons or flowers
     }
-    if (randTile[index1] == randTile[index2]) { // check if two tiles are identical
+    if (picture1 == picture2) { // check if two tiles are identical
       return true; //returns if both tiles are the exact same
     }
     return false; //returns false if the tiles do not match
@@ -507,10 +769,21 @@ public class Mahjong
   /**
    * Uses the tileLoc array and the randTile array to determine if there are any more possible moves left.
    * @param tileLoc x and y coordinates of all the tiles on the board.
-   * @param randTile Stores the images of the tiles in the randomized order.
+   * @param randTile Stores the picture indices of the tiles in the randomized order.
    * @return <code>true</code> if there is at least one more possible move left, <code>false</code> otherwise.
    */
-  private boolean moreMovesLeft (int[] [] tileLoc, Image[] randTile) {
+  private boolean moreMovesLeft (int[] [] tileLoc, int[] randTile) {
+    return findMove(tileLoc, randTile) != null;
+  }
+  
+  
+  /**
+   * Uses the tileLoc array and the randTile array to find a pair of tiles that can be removed.
+   * @param tileLoc x and y coordinates of all the tiles on the board.
+   * @param randTile Stores the picture indices of the tiles in the randomized order.
+   * @return the array indices of two tiles that can be removed together, or <code>null</code> if there are none.
+   */
+  private int[] findMove(int[] [] tileLoc, int[] randTile) {
     // loops compare all the tiles with each other
     // if statement checks if two tiles can be paired
     for (int i = 0; i < numTiles; i++) {
@@ -519,17 +792,24 @@ public class Mahjong
             tileLoc[0][i] != -100 && tileLoc[0][j] != -100 && 
             topTileIndex(tileLoc[0][i], tileLoc[1][i], tileLoc) == i && 
             topTileIndex(tileLoc[0][j], tileLoc[1][j], tileLoc) == j) {
-/* uncomment the lines below if you want the program to show you which tiles to remove. */
-//       c.setColour (Color.blue);
-//       for (int x = -3 ; x <= 3 ; x++) {
-//           c.drawRect (tileLoc [0] [i] + x, tileLoc [1] [i] + x, 41, 51);
-//           c.drawRect (tileLoc [0] [j] + x, tileLoc [1] [j] + x, 41, 51);
-//       }
-          return true;
+          return new int[] {i, j};
         }
       }
     }
-    return false;
+    return null;
+  }
+  
+  
+  /**
+   * Shows the user a pair of tiles that can be removed by pulsing a highlight over both of them.
+   */
+  private void showHint() {
+    int move[] = findMove(tileLoc, randTile);
+    if (move != null) {
+      for (int i = 0; i < 2; i++) {
+        animator.hint(sprites.get(picture[randTile[move[i]]]), px(tileLoc[0][move[i]]), px(tileLoc[1][move[i]]));
+      }
+    }
   }
   
   
@@ -665,13 +945,19 @@ public class Mahjong
    * @param rectY y coordinate of the top right corner of the rectangle to be erased.
    */
   private void eraseRect(int rectX, int rectY) {
-    drawThickRect(rectX, rectY, 41, 51, BACKGROUND_COLOUR); //erase selection rectangle
-    for (int j = 0; j < numTiles; j++) { // redraws the board
-      c.drawImage(randTile[j], tileLoc[0][j], tileLoc[1][j], null);
-    }
-    if (level == 2) { // redraw 45th tile if the user is playing the medium level
-      c.drawImage(randTile[44], tileLoc[0][44], tileLoc[1][44], null);
-    }
+    // puts back the board under the rectangle rather than redrawing every tile
+    int t = px(3);
+    restoreBoard(new Rectangle(px(rectX) - t, px(rectY) - t, px(41) + 2 * t + 1, px(51) + 2 * t + 1));
+  }
+  
+  
+  /**
+   * Checks if a key moves the selection rectangle.
+   * @param key The key, or -1 if there is no key.
+   * @return true if the key is one of w, a, s and d.
+   */
+  private boolean isNavigationKey(int key) {
+    return key != -1 && "wasdWASD".indexOf(key) != -1;
   }
   
   
@@ -683,6 +969,7 @@ public class Mahjong
    * The do while loop within the loop above is used to continually allow the user to navigate through the board and make attempts to remove a tile until they remove a tile that can be removed.
    *       Within the do while loop above:
    *          The first for loop is used to redraw all the tiles on the board. Start: 0 Stop: numTiles
+   *          The do while loop after the selection rectangle is erased applies the key pressed, then any navigation keys queued up after it, so the rectangle is only redrawn once for all of them.
    *          The do while loop below is used to continually move the selection rectangle up/down (depending on the key pressed) until the selection rectangle hits a row that has tiles.
    *          The while loop below is used to continually alternate between searching left and searching right for a tile on the row until a tile is found.
    *              Within the while loop above:
@@ -720,8 +1007,34 @@ public class Mahjong
       do {
         drawThickRect(rectX, rectY, 41, 51, Color.black); // selection rectangle
         
-        key = c.getChar();
+        ConsoleEvent event = c.getEvent();
+        key = event.getKeyChar();
+        if (event.getID() == ConsoleEvent.MOUSE_PRESSED) { // moves the selection rectangle straight to the tile pressed, and selects it
+          int pressed = hitIndex.tileAt((int) (event.getX() / scale), (int) (event.getY() / scale));
+          if (pressed == -1) continue; // not on a tile
+          
+          eraseRect(rectX, rectY);
+          if (i == 1) {
+            drawThickRect(tileLoc[0][index[0]], tileLoc[1][index[0]], 41, 51, Color.yellow);
+            c.setColour(Color.black);
+          }
+          index[i] = pressed;
+          rectX = tileLoc[0][pressed];
+          rectY = tileLoc[1][pressed];
+          bottomX = prevBottomX = rectX + 6 * layerOf(pressed); // the tiles on each layer are drawn 6 pixels left and 7 pixels down from the one below
+          bottomY = prevBottomY = rectY - 7 * layerOf(pressed);
+          key = '/';
+          if (!tileRemovable(pressed, tileLoc)) {
+            c.message("The tile is not removable.", "Cannot Remove Tile");
+            key = ' ';
+          }
+          continue;
+        }
         if (key == 'm') return; // returns to menu
+        if (key == 'h') { // highlights a removable pair without moving the selection rectangle
+          showHint();
+          continue;
+        }
         
         eraseRect(rectX, rectY);
         // end erase
@@ -732,66 +1045,77 @@ public class Mahjong
         }
         // end tile erase
         
-        // finds the value of bottomX and bottomY based on the user's click
-        bottomX = nextBottomX(bottomX, index[i], key, tileLoc[0][143] != -100 ? true : false);
-        
-        int j = 1;
+        // applies the key, and then any navigation keys queued up behind it, before the selection rectangle is redrawn,
+        // so that holding down a key moves the rectangle as far as the keys say without redrawing it for every step
+        boolean moreKeys;
         do {
-          bottomY = nextBottomY(bottomY, index[i], key, tileLoc[0][143] != -100 ? true: false);
-          j++;
-        }
-        while (!rowHasTiles (bottomY, tileLoc) && j <= 7);
-        // end find value of bottomX and bottomY
+          // finds the value of bottomX and bottomY based on the user's click
+          bottomX = nextBottomX(bottomX, index[i], key, tileLoc[0][143] != -100 ? true : false);
         
-        // if the user attempts to access a tile location that does not exist,
-        // the code below brings the selection rectangle to the closest tile available, if possible
-        int k = 1; // stores how far left/right the nearest tile is from the tile directly above/below the current tile.
-        while (topTileIndex(bottomX, bottomY, tileLoc) == -1 && k <= 22) {
-          for (j = 1; j <= k; j++) {
-            bottomX = nextBottomX(bottomX, index[i], 'a', tileLoc[0][143] != -100 ? true : false);
-          }
-          if (topTileIndex(bottomX, bottomY, tileLoc) != -1) {
-            break;
+          int j = 1;
+          do {
+            bottomY = nextBottomY(bottomY, index[i], key, tileLoc[0][143] != -100 ? true: false);
+            j++;
           }
-          for (j = 1; j <= k + 1; j++) {
-            bottomX = nextBottomX(bottomX, index[i], 'd', tileLoc[0][143] != -100 ? true : false);
+          while (!rowHasTiles (bottomY, tileLoc) && j <= 7);
+          // end find value of bottomX and bottomY
+        
+          // if the user attempts to access a tile location that does not exist,
+          // the code below brings the selection rectangle to the closest tile available, if possible
+          int k = 1; // stores how far left/right the nearest tile is from the tile directly above/below the current tile.
+          while (topTileIndex(bottomX, bottomY, tileLoc) == -1 && k <= 22) {
+            for (j = 1; j <= k; j++) {
+              bottomX = nextBottomX(bottomX, index[i], 'a', tileLoc[0][143] != -100 ? true : false);
+            }
+            if (topTileIndex(bottomX, bottomY, tileLoc) != -1) {
+              break;
+            }
+            for (j = 1; j <= k + 1; j++) {
+              bottomX = nextBottomX(bottomX, index[i], 'd', tileLoc[0][143] != -100 ? true : false);
+            }
+            k += 2;
           }
-          k += 2;
-        }
-        // end errortrapping of selection rectangle
+          // end errortrapping of selection rectangle
         
-        // if they try to select but the tile is not removable then key = ' ', so the big do-while loop does not exist, and they must reselect a tile
-        if ((key == '/') && !tileRemovable(index[i], tileLoc)) {
-          new Message("The tile is not removable.", "Cannot Remove Tile");
-          key = ' ';
-        }
-        // end
+          // if they try to select but the tile is not removable then key = ' ', so the big do-while loop does not exist, and they must reselect a tile
+          if ((key == '/') && !tileRemovable(index[i], tileLoc)) {
+            c.message("The tile is not removable.", "Cannot Remove Tile");
+            key = ' ';
+          }
+          // end
         
-        // returns index of tile on top, if no tile there, then -1 returned
-        index[i] = topTileIndex(bottomX, bottomY, tileLoc);
+          // returns index of tile on top, if no tile there, then -1 returned
+          index[i] = topTileIndex(bottomX, bottomY, tileLoc);
         
-        // determines the new location of the rectangle to be drawn after the key click
-        // if index [i] returns a -1, then a tile does not exist at or above (bottomX, bottomY), 
-        // so the value of bottomX and bottomY returns to its previous value before the bad key press
-        try {
-          rectX = tileLoc[0][index[i]];
-          rectY = tileLoc[1][index[i]];
-          prevBottomX = bottomX; // prevBottomX: backup, if user tries to access a tile location that does not exist
-          prevBottomY = bottomY;
-        } catch (ArrayIndexOutOfBoundsException e) {
-          bottomX = prevBottomX;
-          bottomY = prevBottomY;
-          index[i] = topTileIndex(prevBottomX, prevBottomY, tileLoc);
+          // determines the new location of the rectangle to be drawn after the key click
+          // if index [i] returns a -1, then a tile does not exist at or above (bottomX, bottomY), 
+          // so the value of bottomX and bottomY returns to its previous value before the bad key press
+          try {
+            rectX = tileLoc[0][index[i]];
+            rectY = tileLoc[1][index[i]];
+            prevBottomX = bottomX; // prevBottomX: backup, if user tries to access a tile location that does not exist
+            prevBottomY = bottomY;
+          } catch (ArrayIndexOutOfBoundsException e) {
+            bottomX = prevBottomX;
+            bottomY = prevBottomY;
+            index[i] = topTileIndex(prevBottomX, prevBottomY, tileLoc);
+          }
+          
+          moreKeys = isNavigationKey(key) && isNavigationKey(c.peekChar());
+          if (moreKeys) {
+            key = c.getChar();
+          }
         }
+        while (moreKeys);
       }
       while (key != '/');
     }
     
     if (index[0] == index[1] || !tilesMatch(index[0], index[1], randTile)) {
       if (index[0] == index[1]) {
-        new Message("The two tiles selected must be different.", "Try Again");
+        c.message("The two tiles selected must be different.", "Try Again");
       } else {
-        new Message("The two tiles you selected do not match.", "Try Again");
+        c.message("The two tiles you selected do not match.", "Try Again");
       }
       eraseRect(tileLoc[0][index [0]], tileLoc[1][index [0]]);
       selectTiles();
@@ -815,25 +1139,20 @@ public class Mahjong
       }
     }
     
-    // conditional statements below check if the suit of the tiles removed match the suit of the
-    // tile specified in the boolean expression
-    for (int i = 0; i <= 8; i++) { // loops through the first to ninth character, circle, and bamboo
-      if (randTile[index] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/character" + (i + 1) + ".png")))
-        return 1 * (numOfTiles / 2 + 1);
-      if (randTile[index] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/circle" + (i + 1) + ".png")))
-        return 2 * (numOfTiles / 2 + 1);
-      if (randTile[index] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/bamboo" + (i + 1) + ".png")))
-        return 3 * (numOfTiles / 2 + 1);
-    }
-    
-    for (int i = 0 ; i <= 3 ; i++) { // loops through the first to fourth wind, flower, and season
-      if (randTile[index] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/wind" + (i + 1) + ".png")))
-        return 4 * (numOfTiles / 2 + 1);
-      if (randTile[index] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/flower" + (i + 1) + ".png")))
-        return 6 * (numOfTiles / 2 + 1);
-      if (randTile[index] == Toolkit.getDefaultToolkit().getImage(getClass().getResource("img/season" + (i + 1) + ".png")))
-        return 7 * (numOfTiles / 2 + 1);
-    }
+    // conditional statements below check which suit the picture of the tile removed is in
+    int picture = randTile[index];
+    if (picture >= CHARACTER && picture < CHARACTER + 9)
+      return 1 * (numOfTiles / 2 + 1);
+    if (picture >= CIRCLE && picture < CIRCLE + 9)
+      return 2 * (numOfTiles / 2 + 1);
+    if (picture >= BAMBOO && picture < BAMBOO + 9)
+      return 3 * (numOfTiles / 2 + 1);
+    if (picture >= WIND && picture < WIND + 4)
+      return 4 * (numOfTiles / 2 + 1);
+    if (picture >= FLOWER && picture < FLOWER + 4)
+      return 6 * (numOfTiles / 2 + 1);
+    if (picture >= SEASON && picture < SEASON + 4)
+      return 7 * (numOfTiles / 2 + 1);
     
     return 5 * (numOfTiles / 2 + 1); //returns 5 for a dragon tile match
   }
@@ -870,10 +1189,16 @@ public class Mahjong
    */
   private void displayMessage ()
   {
+    String rank = "";
+    if (scoreLog != null) { // the score has already been added, so it is counted among the games played
+      scoreLog.refresh(); // ranks it among the games other copies of the game have saved too
+      rank = "Your score of " + score + " ranks " + scoreLog.getRank(level, score) + " of " + scoreLog.getGameCount(level) + 
+        " " + LEVEL_NAMES[level].toLowerCase() + " games. ";
+    }
     if (numTilesRemaining (tileLoc) == 0)
-      new Message ("Congratulations! You have removed all the tiles. Press OK to return to the main menu.", "Game Over");
+      c.message("Congratulations! You have removed all the tiles. " + rank + "Press OK to return to the main menu.", "Game Over");
     else
-      new Message ("No more moves left! Press OK to return to the main menu.", "Game Over");
+      c.message("No more moves left! " + rank + "Press OK to return to the main menu.", "Game Over");
   }
   
   
@@ -882,20 +1207,41 @@ public class Mahjong
    */
   public void display ()
   {
-    score = 0;
-    askPlayerName ();
-    generateBoard ();
+    if (!waitForImages ()) // the images are still loading if the player chose to play straight away
+      return;
+    if (resumed != null) {
+      resumeGame ();
+    } else {
+      score = 0;
+      moves = 0;
+      askPlayerName ();
+      generateBoard (new Random().nextLong());
+      journal = new int [numTiles];
+      startTime = System.currentTimeMillis();
+    }
+    drawBoard ();
+    c.setCursor(4, 1);
+    c.print("Score: " + score);
+    saveGame ();
     // allows user to keep selecting tiles to remove until no more tiles can be removed
     while (moreMovesLeft (tileLoc, randTile))
     {
       selectTiles ();
       if (key == 'm') // allow user to go back to main menu if they press 'm'
         return;
+      journal[2 * moves] = index[0];
+      journal[2 * moves + 1] = index[1];
       updateBoard ();
       updateScore ();
+      moves++;
+      saveGame ();
+    }
+    if (savedGame != null) {
+      savedGame.clear(); // the game is over, so there is nothing to resume
     }
-    displayMessage ();
     updateHighScores ();
+    archiveGame ();
+    displayMessage ();
   }
   
   
@@ -906,15 +1252,19 @@ public class Mahjong
     String[] suit = {"Character", "Circle", "Bamboo", "Wind", "Dragon", "Flower", "Season"};
     
     drawTitle();
+    c.beginBatch(); // shows each page at once instead of line by line
     c.println("Game Instructions: \n\nThe object of the game is to remove all the tiles on the board by matching them together. " + 
                "To remove a tile, use  the 'w' and 's' keys to navigate to the desired row, and then use the 'a' and 'd' keys to select a specific tile. " + 
-               "Press '/' to remove the tile. Pairs can only be removed if both tiles    satisfy the following conditions:");
+               "Press '/' to remove the tile, or click on the tile with the mouse. Pairs can only be removed if both tiles satisfy the following conditions:");
     c.println("\n     a) There cannot be tiles both directly left and right of the tile.\n     " + 
                "b) There are no tiles directly above any part of the tile to be removed.\n     " +
                "c) The two tiles must be identical, unless they are both seasons or both flowers.");
+    c.println("\nIf you get stuck, press 'h' to highlight a pair of tiles that can be removed.");
+    c.endBatch();
     pauseProgram("Press any key to read the next page of instructions...");
     
     drawTitle();
+    c.beginBatch();
     c.println("Scoring:\n\nYou are awarded points each time you remove a pair. " +
                "The amount of points you receive after removing a pair of tiles is calculated using the following formula:" + 
                "\n\n[number of pairs remaining (including the last pair removed)] x [multiplier]\n\nThe table below shows the multiplier for each suit:");
@@ -928,82 +1278,130 @@ public class Mahjong
       c.print (suit [i], 49);
       c.print (i + 1);
     }
+    c.endBatch();
     
     pauseProgram("\nPress any key to return to the main menu...");
   }
   
   /**
-   * Resets HighScores.dat, or creates one if one does not exist.
+   * Outputs the name and score of the 10 highest scoring games of each level to the screen, side by side.
+   * Scores from before levels were recorded are shown in a fourth table if there are any.
    */
-  private void resetFile() {
-    PrintWriter output;
-    try {
-      output = new PrintWriter(new FileWriter(FILE_NAME));
-      output.println("Mahjong file verification header.");
-      for (int i = 1; i <= 10; i++) {
-        output.println();
+  public void displayHighScores() {
+    drawTitle();
+    if (scoreLog == null) {
+      c.message("The program is unable to display high scores.", "FILE ERROR");
+      return;
+    }
+    
+    scoreLog.refresh(); // shows the scores other copies of the game have saved since it started
+    int firstLevel = scoreLog.getGameCount(0) > 0 ? 0 : 1;
+    int width = 100 / (LEVEL_NAMES.length - firstLevel); // columns given to each table
+    c.beginBatch(); // shows the whole table at once
+    for (int level = firstLevel; level < LEVEL_NAMES.length; level++) {
+      int x = 2 + (level - firstLevel) * width; // column the table starts at
+      c.setCursor(5, x);
+      c.print(LEVEL_NAMES[level]);
+      c.setCursor(7, x);
+      c.print("Player Name", width - 10);
+      c.print("Score");
+      int row = 9;
+      for (ScoreLog.Score s : scoreLog.getTopScores(level, 10)) {
+        c.setCursor(row, x);
+        c.print(s.getName().length() > width - 11 ? s.getName().substring(0, width - 11) : s.getName(), width - 10);
+        c.print(s.getScore(), 5);
+        row++;
       }
-      output.close();
-    } catch (IOException e) {
     }
+    c.setCursor(20, 1);
+    c.endBatch();
+    
+    pauseProgram("Press any key to see the game statistics...");
+    displayStatistics();
   }
   
   
   /**
-   * Outputs the name and score of the 10 highest scoring games to the screen.
+   * Outputs the statistics of the games played on each level and on all levels together, and of the players who
+   * have played the most games.
    */
-  public void displayHighScores() {
-    int column = 7; // value of the column of which the line is to be displayed on
-    
+  private void displayStatistics() {
     drawTitle();
-    
-    try {
-      BufferedReader input = new BufferedReader(new FileReader(FILE_NAME));
-      String line = input.readLine();  // the line that is returned by the readLine method in the BufferedReader class
-      if (line == null || !line.equals ("Mahjong file verification header.")) {
-        input.close();
-        resetFile();
-        new Message(FILE_NAME + " contains an invalid file header, so the file has been reset. Select high scores from the menu to try again.", "FILE ERROR");
-        return;
+    c.beginBatch(); // shows the whole page at once
+    c.println("Game Statistics\n");
+    printStatisticsHeader("Level");
+    GameStats all = new GameStats();
+    for (int level = 0; level < LEVEL_NAMES.length; level++) {
+      GameStats stats = scoreLog.getLevelStats(level);
+      if (level > 0 || stats.getGames() > 0) { // scores from before levels were recorded are only shown if there are any
+        printStatistics(LEVEL_NAMES[level], stats);
+        all.merge(stats);
       }
-      
-      c.setCursor(5, 26);
-      c.print("Player Name", 45);
-      c.println("Score");
-      
-      while (true) { // outputs lines from the file to the Console window until there are no more lines in the file to read
-        line = input.readLine();
-        if (line == null || line.equals("")) break;
-        
-        StringTokenizer tokenizer = new StringTokenizer(line);
-        c.setCursor(column, 26);
-        
-        // tokenize the line and output the player's name until the player's entire name is printed
-        for (int i = 1; i <= tokenizer.countTokens(); i++) {
-          c.print (tokenizer.nextToken() + " ");
-        }
-        
-        c.setCursor(column, 60);
-        c.println(Integer.parseInt(tokenizer.nextToken()), 16);
-        column++;
-      }
-    } catch (FileNotFoundException e) {
-      resetFile();
-      new Message(FILE_NAME + " could not be found, so it has been created. Select high scores from the menu to read the new file.", "FILE ERROR");
-      return;
-    } catch (IOException e) {
-      new Message("The program is unable to display high scores.", "FILE ERROR");
-      return;
     }
+    printStatistics("All Levels", all);
+    
+    c.println("\nMost Games Played\n");
+    printStatisticsHeader("Player Name");
+    for (String name : scoreLog.getMostActivePlayers(5)) {
+      printStatistics(name, scoreLog.getPlayerStats(name));
+    }
+    c.endBatch();
     
     pauseProgram("Press any key to return to the main menu...");
   }
   
   
+  /**
+   * Outputs the column headings of a table of statistics.
+   * @param title Heading of the first column.
+   */
+  private void printStatisticsHeader(String title) {
+    c.print(title, 26);
+    c.print("Games", 10);
+    c.print("Cleared", 10);
+    c.print("Mean", 10);
+    c.print("Median", 10);
+    c.print("90th %", 10);
+    c.print("Best", 10);
+    c.println("Avg Time");
+  }
+  
+  
+  /**
+   * Outputs one row of a table of statistics.
+   * @param title What the statistics are of: a level or a player.
+   * @param stats The statistics.
+   */
+  private void printStatistics(String title, GameStats stats) {
+    c.print(title, 26);
+    c.print("" + stats.getGames(), 10);
+    c.print("" + stats.getCleared(), 10);
+    c.print("" + Math.round(stats.getMeanScore()), 10);
+    c.print("" + stats.getPercentile(0.5), 10);
+    c.print("" + stats.getPercentile(0.9), 10);
+    c.print("" + stats.getBestScore(), 10);
+    long seconds = stats.getMeanDuration() / 1000;
+    c.println(seconds == 0 ? "-" : seconds / 60 + ":" + (seconds % 60 < 10 ? "0" : "") + seconds % 60);
+  }
+  
+  
   /**
    * Thanks the user for playing the game and closes the window after 10 seconds.
    */
   private void goodbye() {
+    if (scoreLog != null) { // writes the scores that are still waiting
+      scoreLog.close(5000);
+    }
+    if (savedGame != null) { // writes the game in progress if it is still waiting
+      savedGame.close(5000);
+    }
+    showWriteErrors();
+    if (gameArchive != null) {
+      try {
+        gameArchive.close();
+      } catch (IOException e) {
+      }
+    }
     drawTitle();
     c.print("Thank you for playing Yuan Mahjong Solitaire.\n\nFor more information, visit www.joshuayuan.com\n\nThis window will close in ");
     for (int seconds = 10 ; seconds > 0 ; seconds--) {
@@ -1017,15 +1415,54 @@ public class Mahjong
       eraseText(9, 27);
     }
     
+    if (Boolean.getBoolean("mahjong.profile")) { // reports how long animation frames took to draw and keys took to be read
+      System.out.println("Animation frame times: " + animator.frameTimeSummary());
+      System.out.println("Key latency: " + c.getInputLatencySummary());
+    }
     c.close();
   }
   
   
+  /**
+   * Returns the scale asked for with -Dmahjong.scale, e.g. 2 to draw everything twice the size for high resolution
+   * screens.
+   * @return the scale, between MIN_SCALE and MAX_SCALE, or 1 if none was asked for or it is not a number.
+   */
+  private static double requestedScale() {
+    try {
+      double requested = Double.parseDouble(System.getProperty("mahjong.scale", "1"));
+      if (Double.isNaN(requested)) return 1;
+      return Math.max(MIN_SCALE, Math.min(MAX_SCALE, requested));
+    } catch (NumberFormatException e) {
+      return 1;
+    }
+  }
+
+
   /**
    * Class constructor.
    */
   public Mahjong() {
-    c = new hsa.Console (30, 100, "Mahjong"); //height 600 width 800
+    c = new hsa.Console (30, 100, (int) Math.round(FONT_SIZE * requestedScale()), "Mahjong"); //height 600 width 800 at scale 1
+    // the console's size depends on the font, so the board is scaled to fit the console that was actually made
+    scale = Math.min(c.getWidth() / (double) BOARD_WIDTH, c.getHeight() / (double) BOARD_HEIGHT);
+    sprites = new SpriteCache(scale);
+    animator = new TileAnimator(c);
+    try {
+      scoreLog = new ScoreLog(SCORE_FILE_NAME, LEGACY_SCORE_FILE_NAME, LEADERBOARD_SIZE);
+    } catch (IOException e) {
+      c.message("The high scores could not be read, so scores will not be saved: " + e.getMessage(), "FILE ERROR");
+    }
+    try {
+      savedGame = new SavedGame(SAVED_GAME_FILE_NAME);
+    } catch (IOException e) {
+      c.message("The saved game could not be opened, so games will not be saved: " + e.getMessage(), "FILE ERROR");
+    }
+    try {
+      gameArchive = new GameArchive(GAME_ARCHIVE_NAME);
+    } catch (IOException e) {
+      c.message("The game archive could not be opened, so games will not be saved for replay: " + e.getMessage(), "FILE ERROR");
+    }
   }
   
   
@@ -1039,7 +1476,9 @@ public class Mahjong
     do {
       m.mainMenu();
       if (m.choice.equals("1")) {
-        m.levelSelection();
+        if (!m.askResume()) {
+          m.levelSelection();
+        }
         m.display();
       } else if (m.choice.equals("2")) {
         m.instructions();
@@ -0,0 +1,210 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * The names of the players in a score log, each given a number, its id, so records can hold the id instead of the
+ * name and all be the same size.
+ *
+ * The names are kept in a file next to the log, one fixed-size entry each, in the order they were first seen, so a
+ * player's id is the position of their entry and the name of an id can be read straight from the file. In memory the
+ * names are kept in a list by id and a hash map from name to id, so looking up either is O(1). Each entry ends with a
+ * CRC32C checksum of the name, so a damaged entry is found when it is read.
+ *
+ * Entries are only ever appended, by a copy of the game holding the log's file lock, and are forced to the disk
+ * before any record that uses them is written. So any id read from a committed record has a whole entry in the file,
+ * and readers need no lock: they read the entries up to the id they need.
+ */
+public class PlayerRegistry
+{
+  /** First four bytes of the file: "MJPR". */
+  private static final int MAGIC = 0x4D4A5052;
+  private static final int VERSION = 1;
+  /** Size in bytes of the header: magic number, version, entry size and a spare int. */
+  private static final int HEADER_SIZE = 16;
+  /** Size in bytes of an entry: the name in UTF-16, padded with zeros, and its checksum. */
+  private static final int ENTRY_SIZE = 2 * ScoreLog.NAME_LENGTH + 4;
+
+  private Path path;
+  private FileChannel file;
+  /** Name of each id that has been read, or <code>null</code> if its entry is damaged. */
+  private ArrayList<String> names = new ArrayList<String>();
+  private HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+
+  /**
+   * Class constructor. Opens the registry, creating it if it does not exist. No entries are read until they are
+   * needed.
+   * @param path The registry file.
+   * @throws IOException if the file cannot be opened or is not a player registry.
+   */
+  public PlayerRegistry(Path path) throws IOException {
+    this.path = path;
+    file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (file.read(header, header.position()) < 0) break;
+      }
+      header.flip();
+      if (header.remaining() == 0) { // a new file
+        header.clear();
+        header.putInt(MAGIC).putInt(VERSION).putInt(ENTRY_SIZE).putInt(0).flip();
+        file.write(header, 0);
+        file.force(false);
+      } else if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != ENTRY_SIZE) {
+        throw new IOException(path.getFileName() + " is not a player registry.");
+      }
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+
+  /**
+   * Returns the name of a player.
+   * @param id The player's id, as read from a record.
+   * @return the name, or <code>null</code> if there is no entry for the id or it is damaged.
+   * @throws IOException if the registry cannot be read.
+   */
+  public synchronized String getName(int id) throws IOException {
+    if (id < 0) return null;
+    if (id >= names.size()) {
+      read(id + 1);
+    }
+    return id < names.size() ? names.get(id) : null;
+  }
+
+
+  /**
+   * Returns the id of a player whose entry has been read.
+   * @param name The player's name.
+   * @return the id, or -1 if the name has not been registered or its entry has not been read yet.
+   */
+  public synchronized int getId(String name) {
+    Integer id = ids.get(name);
+    return id == null ? -1 : id;
+  }
+
+
+  /**
+   * Returns the id of a player, adding an entry for them if they have none. The entry is not forced to the disk until
+   * force() is called. Must be called with the log's file lock held, after readAll().
+   * @param name The player's name.
+   * @return the id.
+   * @throws IOException if the entry cannot be written.
+   */
+  public synchronized int register(String name) throws IOException {
+    Integer id = ids.get(name);
+    if (id != null) return id;
+    ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    putName(name, entry);
+    entry.putInt(checksum(entry)).flip();
+    long position = HEADER_SIZE + (long) names.size() * ENTRY_SIZE; // over any part of an entry a stopped game left
+    while (entry.hasRemaining()) {
+      file.write(entry, position + entry.position());
+    }
+    names.add(name);
+    ids.put(name, names.size() - 1);
+    return names.size() - 1;
+  }
+
+
+  /**
+   * Reads every whole entry in the file, including those other copies of the game have added. Must be called with
+   * the log's file lock held, so no entry is being written.
+   * @throws IOException if the registry cannot be read.
+   */
+  public synchronized void readAll() throws IOException {
+    read((file.size() - HEADER_SIZE) / ENTRY_SIZE);
+  }
+
+
+  /**
+   * Forces the entries added to the disk.
+   * @throws IOException if they cannot be written.
+   */
+  public void force() throws IOException {
+    file.force(false);
+  }
+
+
+  /**
+   * Closes the file.
+   */
+  public void close() throws IOException {
+    file.close();
+  }
+
+
+  /**
+   * Reads the entries after those read so far, up to a number of entries.
+   * @param count Number of entries to have read, at most the number of whole entries in the file.
+   */
+  private void read(long count) throws IOException {
+    count = Math.min(count, (file.size() - HEADER_SIZE) / ENTRY_SIZE);
+    if (count <= names.size()) return;
+    ByteBuffer buffer = ByteBuffer.allocate((int) (count - names.size()) * ENTRY_SIZE);
+    long position = HEADER_SIZE + (long) names.size() * ENTRY_SIZE;
+    while (buffer.hasRemaining()) {
+      if (file.read(buffer, position + buffer.position()) < 0) throw new EOFException(path.getFileName() + " is cut short.");
+    }
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      ByteBuffer entry = buffer.slice();
+      entry.limit(ENTRY_SIZE);
+      String name = readName(entry);
+      if (entry.getInt() != checksum(entry)) {
+        name = null;
+      }
+      names.add(name);
+      if (name != null && !ids.containsKey(name)) {
+        ids.put(name, names.size() - 1);
+      }
+      buffer.position(buffer.position() + ENTRY_SIZE);
+    }
+  }
+
+
+  /**
+   * Writes a player's name in UTF-16, padded with zeros to NAME_LENGTH characters.
+   */
+  private static void putName(String name, ByteBuffer buffer) {
+    for (int i = 0; i < ScoreLog.NAME_LENGTH; i++) {
+      buffer.putChar(i < name.length() ? name.charAt(i) : 0);
+    }
+  }
+
+
+  /**
+   * Reads a name written by putName.
+   */
+  private static String readName(ByteBuffer buffer) {
+    StringBuilder name = new StringBuilder(ScoreLog.NAME_LENGTH);
+    for (int i = 0; i < ScoreLog.NAME_LENGTH; i++) {
+      char ch = buffer.getChar();
+      if (ch != 0) name.append(ch);
+    }
+    return name.toString();
+  }
+
+
+  /**
+   * Returns the CRC32C checksum of the name at the start of an entry.
+   */
+  private static int checksum(ByteBuffer entry) {
+    ByteBuffer name = entry.duplicate();
+    name.position(0);
+    name.limit(2 * ScoreLog.NAME_LENGTH);
+    CRC32C crc = new CRC32C();
+    crc.update(name);
+    return (int) crc.getValue();
+  }
+}
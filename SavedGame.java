@@ -0,0 +1,354 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32C;
+
+/**
+ * Saves the game being played after every move, so a game that is left, or stopped by a crash or a power cut, can be
+ * resumed exactly where it was.
+ *
+ * A game is saved as a snapshot: the level and seed, which deal the same board again, which tiles are still on it,
+ * the score, the time played and the journal of pairs removed. The snapshot is a few hundred bytes, written in two
+ * slots in the file by turns, so writing one never touches the last one written. Each slot holds a sequence number
+ * and ends with a CRC32C checksum, and the newest slot whose checksum is right is the saved game. A snapshot cut short
+ * by a crash fails its checksum, and the one before it is resumed instead.
+ *
+ * save() only encodes the snapshot, which takes microseconds, and leaves it for a saver thread of its own to write
+ * and force to the disk. If the game saves again before the saver has written the last snapshot, only the newer one
+ * is written.
+ *
+ * Several copies of the game may share a working directory, but a saved game belongs to one of them. The copy that
+ * opens the file first holds an exclusive FileLock on it until it closes, and any other copy fails to open it and
+ * does not save its games, so a game is never offered for resume in two places.
+ */
+public class SavedGame
+{
+  /** First four bytes of the file: "MJSG". */
+  private static final int MAGIC = 0x4D4A5347;
+  private static final int VERSION = 1;
+  /** Size in bytes of the header: magic number, version and two spare ints. */
+  private static final int HEADER_SIZE = 16;
+  /** Size in bytes of each slot: the sequence number, the length of the snapshot, the snapshot and its checksum. */
+  private static final int SLOT_SIZE = 512;
+  /** Longest name saved, which is as much of a name as the score log keeps. */
+  private static final int NAME_LENGTH = ScoreLog.NAME_LENGTH;
+  /**
+   * Files opened by this program. A FileLock only keeps out other programs, and closing a second channel on a locked
+   * file would release the lock, so a file this program has open is never opened again.
+   */
+  private static final HashSet<Path> OPEN = new HashSet<Path>();
+
+  /**
+   * A game in progress.
+   */
+  public static class Snapshot {
+    private final String name;
+    private final int level;
+    private final long seed;
+    private final int score;
+    private final long elapsed;
+    private final BitSet onBoard;
+    private final int journal[];
+
+    /**
+     * Class constructor.
+     * @param name Name of the player.
+     * @param level 1, 2 or 3 for easy, medium or hard.
+     * @param seed Seed the board was shuffled with.
+     * @param score Score so far.
+     * @param elapsed Time played so far, in milliseconds.
+     * @param onBoard The array indices of the tiles still on the board.
+     * @param journal Array indices of the tiles removed, two for each pair, in the order they were removed.
+     */
+    public Snapshot(String name, int level, long seed, int score, long elapsed, BitSet onBoard, int journal[]) {
+      this.name = name.length() > NAME_LENGTH ? name.substring(0, NAME_LENGTH) : name;
+      this.level = level;
+      this.seed = seed;
+      this.score = score;
+      this.elapsed = elapsed;
+      this.onBoard = onBoard;
+      this.journal = journal;
+    }
+
+    public String getName() { return name; }
+    public int getLevel() { return level; }
+    public long getSeed() { return seed; }
+    public int getScore() { return score; }
+    public long getElapsed() { return elapsed; }
+    public BitSet getOnBoard() { return (BitSet) onBoard.clone(); }
+    public int[] getJournal() { return journal.clone(); }
+  }
+
+  private Path path;
+  private FileChannel file;
+  /** Sequence number of the last snapshot saved. The slot it goes in is the sequence number modulo 2. */
+  private long sequence;
+  /** The newest snapshot, encoded, that the saver has not written yet, or null. Guarded by this. */
+  private byte pending[];
+  /** The last snapshot saved, encoded, or null if none has been saved since the file was opened. Guarded by this. */
+  private byte latest[];
+  private boolean closing;
+  /** Errors the saver has had that the game has not been told about yet. */
+  private ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+  private Thread saver;
+
+
+  /**
+   * Class constructor. Opens and locks the file, creating it if it does not exist, and starts the saver.
+   * @param fileName Name of the file.
+   * @throws IOException if the file cannot be opened, is not a saved game, or is in use by another copy of the game.
+   */
+  public SavedGame(String fileName) throws IOException {
+    path = Paths.get(fileName).toAbsolutePath().normalize();
+    synchronized (OPEN) {
+      if (!OPEN.add(path)) throw new IOException(fileName + " is already in use.");
+    }
+    try {
+      file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      release();
+      throw e;
+    }
+    try {
+      if (file.tryLock() == null) { // held until the saver closes the file
+        throw new IOException(fileName + " is in use by another copy of the game.");
+      }
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (file.read(header, header.position()) < 0) break;
+      }
+      header.flip();
+      if (header.remaining() < HEADER_SIZE) { // a new file, or one whose header was never finished
+        header.clear();
+        header.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(0).flip();
+        while (header.hasRemaining()) {
+          file.write(header, header.position());
+        }
+        file.force(false);
+      } else if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        throw new IOException(fileName + " is not a saved game.");
+      }
+      for (int slot = 0; slot < 2; slot++) {
+        ByteBuffer contents = readSlot(slot);
+        if (contents != null) {
+          sequence = Math.max(sequence, contents.getLong(0));
+        }
+      }
+    } catch (IOException e) {
+      file.close();
+      release();
+      throw e;
+    }
+
+    saver = new Thread(new Runnable() {
+      public void run() {
+        writeSnapshots();
+      }
+    }, "Saved Game Writer");
+    saver.setDaemon(true);
+    saver.start();
+  }
+
+
+  /**
+   * Saves a game in progress. Does not wait for it to be written.
+   * @param snapshot The game.
+   */
+  public void save(Snapshot snapshot) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(SLOT_SIZE);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeByte(snapshot.level);
+      out.writeLong(snapshot.seed);
+      out.writeInt(snapshot.score);
+      out.writeLong(snapshot.elapsed);
+      out.writeUTF(snapshot.name);
+      byte onBoard[] = snapshot.onBoard.toByteArray();
+      out.writeShort(onBoard.length);
+      out.write(onBoard);
+      out.writeShort(snapshot.journal.length);
+      for (int i = 0; i < snapshot.journal.length; i++) {
+        out.writeShort(snapshot.journal[i]);
+      }
+      out.flush();
+    } catch (IOException e) { // never thrown writing to memory
+    }
+    queue(bytes.toByteArray());
+  }
+
+
+  /**
+   * Forgets the saved game, once it has been finished. Does not wait for the file to be written.
+   */
+  public void clear() {
+    queue(new byte [0]);
+  }
+
+
+  /**
+   * Returns the saved game: the last one saved since the file was opened, even if it has not been written yet, or
+   * else the one read from the file.
+   * @return the game, or <code>null</code> if there is none or no slot can be read.
+   */
+  public Snapshot load() {
+    byte snapshot[];
+    synchronized (this) {
+      snapshot = latest;
+    }
+    try {
+      if (snapshot == null) {
+        ByteBuffer newest = null;
+        for (int slot = 0; slot < 2; slot++) {
+          ByteBuffer contents = readSlot(slot);
+          if (contents != null && (newest == null || contents.getLong(0) > newest.getLong(0))) {
+            newest = contents;
+          }
+        }
+        if (newest == null) return null;
+        snapshot = new byte [newest.getInt(8)];
+        System.arraycopy(newest.array(), 12, snapshot, 0, snapshot.length);
+      }
+      if (snapshot.length == 0) return null; // no game, or a game that was finished
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+      int level = in.readByte();
+      long seed = in.readLong();
+      int score = in.readInt();
+      long elapsed = in.readLong();
+      String name = in.readUTF();
+      byte onBoard[] = new byte [in.readUnsignedShort()];
+      in.readFully(onBoard);
+      int journal[] = new int [in.readUnsignedShort()];
+      for (int i = 0; i < journal.length; i++) {
+        journal[i] = in.readShort();
+      }
+      return new Snapshot(name, level, seed, score, elapsed, BitSet.valueOf(onBoard), journal);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+
+  /**
+   * Returns an error the saver has had since it was last asked.
+   * @return a description of the error, or <code>null</code> if there have been no errors.
+   */
+  public String takeError() {
+    return errors.poll();
+  }
+
+
+  /**
+   * Writes the snapshot still waiting, if there is one, and stops the saver.
+   * @param timeout Longest time to wait for the saver to finish, in milliseconds.
+   * @return <code>false</code> if the saver did not finish in time.
+   */
+  public boolean close(long timeout) {
+    synchronized (this) {
+      closing = true;
+      notifyAll();
+    }
+    try {
+      saver.join(timeout);
+    } catch (InterruptedException e) {
+    }
+    return !saver.isAlive();
+  }
+
+
+  /**
+   * Leaves a snapshot for the saver, in place of any it has not written yet.
+   */
+  private synchronized void queue(byte snapshot[]) {
+    if (snapshot.length > SLOT_SIZE - 16) {
+      errors.add("The game could not be saved because it is too big.");
+      return;
+    }
+    pending = snapshot;
+    latest = snapshot;
+    notifyAll();
+  }
+
+
+  /**
+   * The saver's loop: writes each snapshot into the slot after the last one written, and forces it to the disk.
+   */
+  private void writeSnapshots() {
+    while (true) {
+      byte snapshot[];
+      synchronized (this) {
+        while (pending == null && !closing) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+          }
+        }
+        if (pending == null) break; // closing, and everything has been written
+        snapshot = pending;
+        pending = null;
+      }
+
+      ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+      slot.putLong(sequence + 1).putInt(snapshot.length).put(snapshot);
+      slot.putInt(checksum(slot.array(), slot.position()));
+      slot.clear(); // the whole slot is written, so the file is always two slots long
+      try {
+        long position = HEADER_SIZE + ((sequence + 1) % 2) * SLOT_SIZE;
+        while (slot.hasRemaining()) {
+          file.write(slot, position + slot.position());
+        }
+        file.force(false);
+        sequence++;
+      } catch (IOException e) {
+        errors.add("The game could not be saved: " + e.getMessage());
+      }
+    }
+    try {
+      file.close();
+    } catch (IOException e) {
+    }
+    release();
+  }
+
+
+  /**
+   * Lets the file be opened again by this program.
+   */
+  private void release() {
+    synchronized (OPEN) {
+      OPEN.remove(path);
+    }
+  }
+
+
+  /**
+   * Reads a slot.
+   * @return the slot's sequence number, the length of its snapshot and the snapshot, or <code>null</code> if the slot
+   *         has never been written or is damaged.
+   */
+  private ByteBuffer readSlot(int slot) throws IOException {
+    ByteBuffer contents = ByteBuffer.allocate(SLOT_SIZE);
+    while (contents.hasRemaining()) {
+      if (file.read(contents, HEADER_SIZE + (long) slot * SLOT_SIZE + contents.position()) < 0) return null;
+    }
+    int length = contents.getInt(8);
+    if (length < 0 || length > SLOT_SIZE - 16) return null;
+    if (contents.getInt(12 + length) != checksum(contents.array(), 12 + length)) return null;
+    return contents;
+  }
+
+
+  /**
+   * Returns the CRC32C checksum of the first <code>length</code> bytes of a slot.
+   */
+  private static int checksum(byte slot[], int length) {
+    CRC32C crc = new CRC32C();
+    crc.update(slot, 0, length);
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,218 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * What a ScoreLog keeps in memory about the games in it: the Leaderboard and GameStats of each level, and the
+ * GameStats of each player. Everything is updated as each game is added, so none of it has to be worked out again
+ * from the log when it is read, and all of it can be saved in a checkpoint and read back.
+ */
+public class ScoreIndex
+{
+  /** Number of highest scores kept for each level. */
+  private int boardSize;
+  private HashMap<Integer, Leaderboard> boards = new HashMap<Integer, Leaderboard>();
+  private HashMap<Integer, GameStats> levels = new HashMap<Integer, GameStats>();
+  private HashMap<String, GameStats> players = new HashMap<String, GameStats>();
+
+
+  /**
+   * Class constructor. Creates an index of no games.
+   * @param boardSize Number of highest scores kept for each level.
+   */
+  public ScoreIndex(int boardSize) {
+    this.boardSize = boardSize;
+  }
+
+
+  /**
+   * Class constructor. Creates a copy of an index.
+   * @param index The index to copy.
+   */
+  public ScoreIndex(ScoreIndex index) {
+    boardSize = index.boardSize;
+    for (Integer level : index.boards.keySet()) {
+      boards.put(level, new Leaderboard(index.boards.get(level)));
+    }
+    for (Integer level : index.levels.keySet()) {
+      levels.put(level, new GameStats(index.levels.get(level)));
+    }
+    for (String name : index.players.keySet()) {
+      players.put(name, new GameStats(index.players.get(name)));
+    }
+  }
+
+
+  /**
+   * Adds a game.
+   * @param s The score of the game.
+   */
+  public void add(ScoreLog.Score s) {
+    Leaderboard board = boards.get(s.getLevel());
+    if (board == null) {
+      board = new Leaderboard(boardSize);
+      boards.put(s.getLevel(), board);
+    }
+    board.add(s);
+    stats(levels, s.getLevel()).add(s);
+    stats(players, s.getName()).add(s);
+  }
+
+
+  /**
+   * Returns the statistics for a key, creating them if there are none yet.
+   */
+  private static <K> GameStats stats(HashMap<K, GameStats> map, K key) {
+    GameStats stats = map.get(key);
+    if (stats == null) {
+      stats = new GameStats();
+      map.put(key, stats);
+    }
+    return stats;
+  }
+
+
+  /**
+   * Returns the leaderboard of a level.
+   * @return the leaderboard, or <code>null</code> if no games have been played on the level.
+   */
+  public Leaderboard getBoard(int level) {
+    return boards.get(level);
+  }
+
+
+  /**
+   * Returns the statistics of a level.
+   * @return the statistics, or <code>null</code> if no games have been played on the level.
+   */
+  public GameStats getLevelStats(int level) {
+    return levels.get(level);
+  }
+
+
+  /**
+   * Returns the statistics of a player.
+   * @return the statistics, or <code>null</code> if the player has not played.
+   */
+  public GameStats getPlayerStats(String name) {
+    return players.get(name);
+  }
+
+
+  /**
+   * Finds the players who have played the most games.
+   * @param count Largest number of players to return.
+   * @return the names of up to <code>count</code> players, most games first.
+   */
+  public ArrayList<String> getMostActivePlayers(int count) {
+    ArrayList<String> names = new ArrayList<String>(players.keySet());
+    Collections.sort(names, new Comparator<String>() {
+      public int compare(String a, String b) {
+        return Long.compare(players.get(b).getGames(), players.get(a).getGames());
+      }
+    });
+    if (names.size() > count) {
+      names.subList(count, names.size()).clear();
+    }
+    return names;
+  }
+
+
+  /**
+   * Writes the index for a checkpoint: the number of leaderboards, then for each its level, the number of different
+   * scores counted, each score with its number of games, and the number of highest scores and their records; then
+   * the statistics of each level and of each player, each list preceded by its length. Players are written as their
+   * ids in the registry.
+   * @throws IOException if a player is not registered.
+   */
+  public void write(DataOutputStream out, PlayerRegistry registry) throws IOException {
+    out.writeInt(boardSize);
+    out.writeInt(boards.size());
+    ByteBuffer record = ByteBuffer.allocate(ScoreLog.RECORD_SIZE);
+    for (Integer level : boards.keySet()) {
+      Leaderboard board = boards.get(level);
+      out.writeInt(level);
+      int highest = board.getHighestCounted();
+      int numScores = 0;
+      for (int score = 0; score <= highest; score++) {
+        if (board.getCount(score) != 0) numScores++;
+      }
+      out.writeInt(numScores);
+      for (int score = 0; score <= highest; score++) {
+        if (board.getCount(score) != 0) {
+          out.writeInt(score);
+          out.writeInt(board.getCount(score));
+        }
+      }
+      ArrayList<ScoreLog.Score> top = board.getTopScores(boardSize);
+      out.writeInt(top.size());
+      for (ScoreLog.Score s : top) {
+        record.clear();
+        ScoreLog.encode(s, id(registry, s.getName()), record);
+        out.write(record.array());
+      }
+    }
+
+    out.writeInt(levels.size());
+    for (Integer level : levels.keySet()) {
+      out.writeInt(level);
+      levels.get(level).write(out);
+    }
+    out.writeInt(players.size());
+    for (String name : players.keySet()) {
+      out.writeInt(id(registry, name));
+      players.get(name).write(out);
+    }
+  }
+
+
+  /**
+   * Returns the id of a registered player.
+   * @throws IOException if the player is not registered.
+   */
+  private static int id(PlayerRegistry registry, String name) throws IOException {
+    int id = registry.getId(name);
+    if (id < 0) throw new IOException(name + " is not registered.");
+    return id;
+  }
+
+
+  /**
+   * Reads an index written by write.
+   * @return the index, or <code>null</code> if it was written with a different board size, one of its records is
+   *         damaged or one of its players is not registered.
+   * @throws IOException if the registry cannot be read.
+   * @throws RuntimeException if the index is cut short or otherwise damaged.
+   */
+  public static ScoreIndex read(ByteBuffer buffer, int boardSize, PlayerRegistry registry) throws IOException {
+    if (buffer.getInt() != boardSize) return null;
+    ScoreIndex index = new ScoreIndex(boardSize);
+    for (int numBoards = buffer.getInt(); numBoards > 0; numBoards--) {
+      Leaderboard board = new Leaderboard(boardSize);
+      index.boards.put(buffer.getInt(), board);
+      for (int numScores = buffer.getInt(); numScores > 0; numScores--) {
+        board.addCount(buffer.getInt(), buffer.getInt());
+      }
+      for (int numTop = buffer.getInt(); numTop > 0; numTop--) {
+        ScoreLog.Score s = ScoreLog.decode(buffer, registry);
+        if (s == null) return null;
+        board.addTop(s);
+      }
+    }
+
+    for (int numLevels = buffer.getInt(); numLevels > 0; numLevels--) {
+      int level = buffer.getInt();
+      index.levels.put(level, GameStats.read(buffer));
+    }
+    for (int numPlayers = buffer.getInt(); numPlayers > 0; numPlayers--) {
+      String name = registry.getName(buffer.getInt());
+      if (name == null) return null;
+      index.players.put(name, GameStats.read(buffer));
+    }
+    return index;
+  }
+}
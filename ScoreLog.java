@@ -0,0 +1,712 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps every finished game in an append-only log file: who played it, on which level and board, the score, how many
+ * tiles were left, how long it took and how many pairs were removed. The leaderboards and statistics of the games
+ * are kept in memory, in a ScoreIndex.
+ *
+ * Each game is one fixed-size binary record appended to the end of the log, so saving a score never rewrites the
+ * scores saved before it. Records refer to the player by an id from a PlayerRegistry kept next to the log, rather
+ * than holding the name, which keeps them small. A crash while saving can at worst leave part of a record at the end of the log, which is
+ * cut off the next time the log is opened. Each record ends with a CRC32C checksum of the rest of it, so a record
+ * damaged in any other way is found when it is read, and skipped rather than taken for a score or treated as the end
+ * of the log. The index is updated as each game is added rather than worked out from the log when it is read, so
+ * showing the leaderboards and statistics never reads the log.
+ *
+ * Scores are written by a writer thread of its own, so adding a score never waits for the disk. add() updates the
+ * index and puts the score on a bounded queue. The writer takes every score waiting on the queue, appends
+ * them with one write, and forces them to the disk with one fsync, so a burst of scores costs one fsync rather than
+ * one each. If writing fails, the error is kept until the game asks for it with takeError(), since the writer has no
+ * way to tell the player itself.
+ *
+ * Reading the whole log when the game starts would get slower as the log grows, so the index is saved every so
+ * often in a checkpoint file, along with the length of the log it was taken from. The checkpoint holds a count for
+ * each distinct score, the highest scores and the statistics of each level and player, so it grows with the number of
+ * players and distinct scores, not games. Opening the log reads the checkpoint and then only the records appended
+ * after it, through a memory-mapped view of the file so they are read without being copied. The writer writes the
+ * checkpoint to a temporary file that is then renamed over the old one, so it is always either the old checkpoint
+ * or the new one. If it is missing or unreadable, the whole log is read instead.
+ *
+ * Several copies of the game, on one computer or sharing a network drive, can use the same log. Writers take an
+ * exclusive FileLock on the log while appending, and append after the records the other copies have written. The
+ * header holds the number of records in the log, and a writer only updates it after its records have been forced
+ * to the disk, so the count is the point at which they are committed. Records are never changed once written, so
+ * readers take no lock at all: they read the count and then only the records it covers, which is a consistent
+ * snapshot even while another copy is appending. refresh() adds the games the other copies have written to the
+ * index.
+ *
+ * The log header holds its version and the sizes of the header and records, so a later version can tell what it is
+ * reading. The first time the log is opened, the scores in the old text high score file, if there is one, are copied
+ * into it.
+ */
+public class ScoreLog
+{
+  /** Longest player name stored. Longer names are cut short. */
+  public static final int NAME_LENGTH = 24;
+  /** First four bytes of the log and checkpoint files: "MJSL". */
+  private static final int MAGIC = 0x4D4A534C;
+  private static final int VERSION = 1;
+  /** Version of the checkpoint format, which changes separately from the log. */
+  private static final int CHECKPOINT_VERSION = 1;
+  /**
+   * Size in bytes of the log header: magic number, version, header size, record size, then the number of records,
+   * twice, the second time with its bits inverted.
+   */
+  private static final int HEADER_SIZE = 32;
+  /** Position in the log header of the number of records. */
+  private static final int COUNT_OFFSET = 16;
+  /**
+   * Size in bytes of the game in a record: time, seed, the player's id in the PlayerRegistry, level, score, tiles
+   * left, moves and duration.
+   */
+  private static final int DATA_SIZE = 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4;
+  /** Size in bytes of a record: the game and its checksum. */
+  static final int RECORD_SIZE = DATA_SIZE + 4;
+  /** Number of records added between checkpoints. */
+  private static final int CHECKPOINT_INTERVAL = 64;
+  /** Number of scores that can wait to be written. */
+  private static final int QUEUE_SIZE = 256;
+  /** First line of the old text high score file. */
+  private static final String LEGACY_HEADER = "Mahjong file verification header.";
+
+  /**
+   * One finished game.
+   */
+  public static class Score {
+    private final String name;
+    private final int level;
+    private final int score;
+    private final long time;
+    private final long seed;
+    private final int tilesLeft;
+    private final int moves;
+    private final int duration;
+
+    /**
+     * Class constructor for a game of which only the score is known.
+     * @param name Name of the player.
+     * @param level 1, 2 or 3 for easy, medium or hard, or 0 if not known.
+     * @param score Final score.
+     * @param time Time the game finished, in milliseconds since 1970, or 0 if not known.
+     */
+    public Score(String name, int level, int score, long time) {
+      this(name, level, score, time, 0, -1, 0, 0);
+    }
+
+    /**
+     * Class constructor.
+     * @param name Name of the player.
+     * @param level 1, 2 or 3 for easy, medium or hard, or 0 if not known.
+     * @param score Final score.
+     * @param time Time the game finished, in milliseconds since 1970, or 0 if not known.
+     * @param seed Seed the board was shuffled with, which deals the same board again.
+     * @param tilesLeft Number of tiles left on the board, or -1 if not known.
+     * @param moves Number of pairs removed.
+     * @param duration Length of the game in milliseconds, or 0 if not known.
+     */
+    public Score(String name, int level, int score, long time, long seed, int tilesLeft, int moves, int duration) {
+      this.name = name.length() > NAME_LENGTH ? name.substring(0, NAME_LENGTH) : name;
+      this.level = level;
+      this.score = score;
+      this.time = time;
+      this.seed = seed;
+      this.tilesLeft = tilesLeft;
+      this.moves = moves;
+      this.duration = duration;
+    }
+
+    public String getName() { return name; }
+    public int getLevel() { return level; }
+    public int getScore() { return score; }
+    public long getTime() { return time; }
+    public long getSeed() { return seed; }
+    public int getTilesLeft() { return tilesLeft; }
+    public int getMoves() { return moves; }
+    public int getDuration() { return duration; }
+  }
+
+  /** Put on the queue by close() to stop the writer. */
+  private static final Score CLOSE = new Score("", 0, 0, 0);
+  /**
+   * A lock for each log opened by this program. A FileLock only keeps out other programs, so the threads of this
+   * one that use the same log take this lock first.
+   */
+  private static final HashMap<Path, ReentrantLock> LOCKS = new HashMap<Path, ReentrantLock>();
+
+  private Path logPath;
+  private Path checkpointPath;
+  /** Names of the players, which records refer to by id. */
+  private PlayerRegistry registry;
+  /** Number of highest scores kept for each level. */
+  private int boardSize;
+  /** Index of the games, including those still waiting to be written. Guarded by this. */
+  private ScoreIndex shown;
+  /** Scores waiting to be written. */
+  private ArrayBlockingQueue<Score> queue = new ArrayBlockingQueue<Score>(QUEUE_SIZE);
+  /** Errors the writer has had that the game has not been told about yet. */
+  private ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+  private Thread writer;
+
+  /** Held while reading or writing the log. Guards the fields below. */
+  private ReentrantLock lock;
+  private FileChannel log;
+  /** Length in bytes of the part of the log that has been read, which is always a whole number of records. */
+  private long logLength;
+  /** Index of only the games written to the log. Checkpoints are taken from it. */
+  private ScoreIndex written;
+  /** Number of records written since the last checkpoint. */
+  private int sinceCheckpoint;
+
+
+  /**
+   * Class constructor. Opens the log, creating it if it does not exist, reads the index and starts the writer.
+   * @param fileName Name of the log file. The checkpoint is kept next to it.
+   * @param legacyFileName Name of the old text high score file, copied into the log when it is created.
+   * @param boardSize Number of highest scores kept for each level.
+   * @throws IOException if the log cannot be opened or is not a score log.
+   */
+  public ScoreLog(String fileName, String legacyFileName, int boardSize) throws IOException {
+    this.boardSize = boardSize;
+    logPath = Paths.get(fileName).toAbsolutePath().normalize();
+    checkpointPath = Paths.get(logPath + ".top");
+    synchronized (LOCKS) {
+      lock = LOCKS.get(logPath);
+      if (lock == null) {
+        lock = new ReentrantLock();
+        LOCKS.put(logPath, lock);
+      }
+    }
+    log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      registry = new PlayerRegistry(Paths.get(logPath + ".players"));
+    } catch (IOException e) {
+      log.close();
+      throw e;
+    }
+
+    boolean created;
+    int damaged = 0;
+    lock.lock();
+    try {
+      FileLock fileLock = log.lock();
+      try {
+        created = log.size() == 0;
+        if (created) {
+          log.write(header(0), 0);
+          log.force(false);
+        } else {
+          checkHeader(fileName);
+          long count;
+          try {
+            count = readCount();
+          } catch (IOException e) { // the header is damaged, so every whole record is counted
+            count = (log.size() - HEADER_SIZE) / RECORD_SIZE;
+            writeCount(count);
+          }
+          logLength = HEADER_SIZE + count * RECORD_SIZE;
+          if (log.size() > logLength) { // records a copy of the game was writing when it stopped
+            log.truncate(logLength);
+          }
+        }
+      } finally {
+        fileLock.release();
+      }
+    } catch (IOException e) {
+      log.close();
+      registry.close();
+      throw e;
+    } finally {
+      lock.unlock();
+    }
+
+    if (created) {
+      logLength = HEADER_SIZE;
+      written = new ScoreIndex(boardSize);
+    } else {
+      long from = readCheckpoint();
+      if (from < 0) {
+        from = HEADER_SIZE;
+        written = new ScoreIndex(boardSize);
+      }
+      damaged += scan(from, false);
+      if (damaged > 0) {
+        errors.add(damaged + (damaged == 1 ? " damaged score in " : " damaged scores in ") + fileName + " could not be read.");
+      }
+      sinceCheckpoint = (int) Math.min(CHECKPOINT_INTERVAL, (logLength - from) / RECORD_SIZE);
+    }
+    shown = new ScoreIndex(written);
+
+    writer = new Thread(new Runnable() {
+      public void run() {
+        writeScores();
+      }
+    }, "Score Log Writer");
+    writer.setDaemon(true);
+    writer.start();
+
+    if (created && legacyFileName != null) {
+      importLegacy(Paths.get(legacyFileName));
+    }
+  }
+
+
+  /**
+   * Adds a finished game to the index and queues it to be appended to the log.
+   * Does not wait for the game to be written.
+   * @param s The game.
+   * @return <code>false</code> if the score was not added because too many scores are waiting to be written.
+   */
+  public boolean add(Score s) {
+    if (!queue.offer(s)) return false;
+    synchronized (this) {
+      shown.add(s);
+    }
+    return true;
+  }
+
+
+  /**
+   * Returns an error the writer has had since it was last asked.
+   * @return a description of the error, or <code>null</code> if there have been no errors.
+   */
+  public String takeError() {
+    return errors.poll();
+  }
+
+
+  /**
+   * Adds the games other copies of the game have written since this one last looked to the index.
+   * Never waits: if this copy's writer is using the log, it adds them itself when it is done.
+   */
+  public void refresh() {
+    if (!lock.tryLock()) return;
+    try {
+      if (log.isOpen()) {
+        catchUp();
+      }
+    } catch (IOException e) {
+      errors.add("The scores of other games could not be read: " + e.getMessage());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+
+  /**
+   * Writes the scores still waiting on the queue and stops the writer.
+   * @param timeout Longest time to wait for the writer to finish, in milliseconds.
+   * @return <code>false</code> if the writer did not finish in time.
+   */
+  public boolean close(long timeout) {
+    try {
+      if (!queue.offer(CLOSE, timeout, TimeUnit.MILLISECONDS)) return false;
+      writer.join(timeout);
+    } catch (InterruptedException e) {
+    }
+    return !writer.isAlive();
+  }
+
+
+  /**
+   * The writer's loop: appends each batch of queued scores to the log with one write and one fsync, then commits
+   * them by updating the record count in the header.
+   */
+  private void writeScores() {
+    ArrayList<Score> batch = new ArrayList<Score>();
+    boolean closing = false;
+    while (!closing) {
+      batch.clear();
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        continue;
+      }
+      queue.drainTo(batch);
+      closing = batch.remove(CLOSE);
+      if (batch.isEmpty()) {
+        if (closing && sinceCheckpoint > 0) {
+          lock.lock();
+          try {
+            checkpoint(); // so the records read when the log was opened are not read again next time
+          } finally {
+            lock.unlock();
+          }
+        }
+        continue;
+      }
+
+      ByteBuffer records = ByteBuffer.allocate(batch.size() * RECORD_SIZE);
+      lock.lock();
+      try {
+        FileLock fileLock = log.lock();
+        try {
+          catchUp(); // the records are appended after those other copies of the game have written
+          registry.readAll(); // and new players are given ids after those the other copies have registered
+          for (Score s : batch) {
+            encode(s, registry.register(s.getName()), records);
+          }
+          registry.force(); // the players must be registered before any record refers to them
+          records.flip();
+          while (records.hasRemaining()) {
+            log.write(records, logLength + records.position());
+          }
+          log.force(false);
+          writeCount((logLength + records.limit() - HEADER_SIZE) / RECORD_SIZE);
+          log.force(false);
+        } finally {
+          fileLock.release();
+        }
+        logLength += records.limit();
+        for (Score s : batch) {
+          written.add(s);
+        }
+
+        sinceCheckpoint += batch.size();
+        if (sinceCheckpoint >= CHECKPOINT_INTERVAL || closing) {
+          checkpoint();
+        }
+      } catch (IOException e) {
+        // anything written past the record count is overwritten by the next batch, or cut off when the log is next opened
+        errors.add(batch.size() + (batch.size() == 1 ? " score" : " scores") + " could not be saved: " + e.getMessage());
+      } finally {
+        lock.unlock();
+      }
+    }
+    lock.lock();
+    try {
+      log.close();
+      registry.close();
+    } catch (IOException e) {
+    } finally {
+      lock.unlock();
+    }
+  }
+
+
+  /**
+   * Reads the records other copies of the game have committed to the log since it was last read, adding them to the
+   * index. Called with the lock held.
+   */
+  private void catchUp() throws IOException {
+    long length = HEADER_SIZE + readCount() * RECORD_SIZE;
+    if (length <= logLength) return;
+    long from = logLength;
+    logLength = length;
+    int damaged = scan(from, true);
+    if (damaged > 0) {
+      errors.add(damaged + (damaged == 1 ? " damaged score" : " damaged scores") + " written by another game could not be read.");
+    }
+    sinceCheckpoint += (length - from) / RECORD_SIZE;
+  }
+
+
+  /**
+   * Returns the highest scores of a level.
+   * @param level The level, or 0 for scores from before levels were recorded.
+   * @param count Largest number of scores to return.
+   * @return a list of up to <code>count</code> scores, highest first.
+   */
+  public synchronized ArrayList<Score> getTopScores(int level, int count) {
+    Leaderboard board = shown.getBoard(level);
+    return board == null ? new ArrayList<Score>() : board.getTopScores(count);
+  }
+
+
+  /**
+   * Finds where a score ranks among all the games played on a level.
+   * @param level The level.
+   * @param score The score.
+   * @return 1 plus the number of games on the level that scored more.
+   */
+  public synchronized long getRank(int level, int score) {
+    Leaderboard board = shown.getBoard(level);
+    return board == null ? 1 : board.getRank(score);
+  }
+
+
+  /**
+   * Returns the number of games played on a level.
+   * @param level The level.
+   */
+  public synchronized long getGameCount(int level) {
+    Leaderboard board = shown.getBoard(level);
+    return board == null ? 0 : board.getGameCount();
+  }
+
+
+  /**
+   * Returns the statistics of the games played on a level.
+   * @param level The level.
+   * @return a copy of the statistics, which has no games if none have been played.
+   */
+  public synchronized GameStats getLevelStats(int level) {
+    GameStats stats = shown.getLevelStats(level);
+    return stats == null ? new GameStats() : new GameStats(stats);
+  }
+
+
+  /**
+   * Returns the statistics of the games a player has played.
+   * @param name The player's name.
+   * @return a copy of the statistics, which has no games if the player has not played.
+   */
+  public synchronized GameStats getPlayerStats(String name) {
+    GameStats stats = shown.getPlayerStats(name);
+    return stats == null ? new GameStats() : new GameStats(stats);
+  }
+
+
+  /**
+   * Finds the players who have played the most games.
+   * @param count Largest number of players to return.
+   * @return the names of up to <code>count</code> players, most games first.
+   */
+  public synchronized ArrayList<String> getMostActivePlayers(int count) {
+    return shown.getMostActivePlayers(count);
+  }
+
+
+  /**
+   * Returns the header of a log of the current version.
+   * @param count Number of records in the log.
+   */
+  private static ByteBuffer header(long count) {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).putInt(HEADER_SIZE).putInt(RECORD_SIZE).putLong(count).putLong(~count).flip();
+    return header;
+  }
+
+
+  /**
+   * Checks that the log is a score log this version of the game can read.
+   * @throws IOException if the log is not a score log or is of a newer version.
+   */
+  private void checkHeader(String fileName) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(16);
+    log.read(header, 0);
+    header.flip();
+    int version = header.remaining() == 16 && header.getInt() == MAGIC ? header.getInt() : -1;
+    if (version == VERSION && header.getInt() == HEADER_SIZE && header.getInt() == RECORD_SIZE) return;
+    throw new IOException(fileName + (version > VERSION ? " was written by a newer version of the game." : " is not a score log."));
+  }
+
+
+  /**
+   * Reads the number of records committed to the log. A read that overlaps another copy of the game writing the
+   * count is seen because the count and its inverted copy do not match, and is tried again.
+   * @throws IOException if the count cannot be read, or does not match its copy however many times it is read.
+   */
+  private long readCount() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    for (int tries = 0; tries < 1000; tries++) {
+      buffer.clear();
+      while (buffer.hasRemaining()) {
+        if (log.read(buffer, COUNT_OFFSET + buffer.position()) < 0) throw new EOFException();
+      }
+      long count = buffer.getLong(0);
+      if (buffer.getLong(8) == ~count && count >= 0 && HEADER_SIZE + count * RECORD_SIZE <= log.size()) return count;
+      Thread.yield();
+    }
+    throw new IOException("The number of scores in the log is damaged.");
+  }
+
+
+  /**
+   * Writes the number of records committed to the log. Called with the file lock held.
+   */
+  private void writeCount(long count) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    buffer.putLong(count).putLong(~count).flip();
+    while (buffer.hasRemaining()) {
+      log.write(buffer, COUNT_OFFSET + buffer.position());
+    }
+  }
+
+
+  /**
+   * Reads the records from a position in the log to the end of the part that has been read, adding them to the
+   * index of the written games.
+   * @param others <code>true</code> if the records were written by other copies of the game, so they are added to
+   *               the index shown as well.
+   * @return the number of damaged records, which are skipped.
+   */
+  private int scan(long from, boolean others) throws IOException {
+    long chunk = Integer.MAX_VALUE / RECORD_SIZE * RECORD_SIZE; // largest part of the file one mapping can hold
+    int damaged = 0;
+    for (long position = from; position < logLength; position += chunk) {
+      MappedByteBuffer buffer = log.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunk, logLength - position));
+      while (buffer.remaining() >= RECORD_SIZE) {
+        Score s = decode(buffer, registry);
+        if (s == null) {
+          damaged++;
+        } else {
+          written.add(s);
+          if (others) {
+            synchronized (this) {
+              shown.add(s);
+            }
+          }
+        }
+      }
+    }
+    return damaged;
+  }
+
+
+  /**
+   * Reads the index of the written games from the checkpoint, which holds the index as ScoreIndex.write writes it.
+   * @return the length of the log the checkpoint was taken from, or -1 if there is no usable checkpoint.
+   */
+  private long readCheckpoint() {
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpointPath));
+      if (buffer.getInt() != MAGIC || buffer.getInt() != CHECKPOINT_VERSION) return -1;
+      long length = buffer.getLong();
+      if (length > logLength || (length - HEADER_SIZE) % RECORD_SIZE != 0) return -1;
+      written = ScoreIndex.read(buffer, boardSize, registry);
+      return written == null ? -1 : length;
+    } catch (IOException e) {
+      return -1;
+    } catch (RuntimeException e) { // cut short or otherwise damaged
+      return -1;
+    }
+  }
+
+
+  /**
+   * Writes a checkpoint of the index of the games written to the log. Called by the writer with the lock held.
+   */
+  private void checkpoint() {
+    sinceCheckpoint = 0;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(CHECKPOINT_VERSION);
+      out.writeLong(logLength);
+      written.write(out, registry);
+      out.flush();
+    } catch (IOException e) { // a player is not registered, which should never happen
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    Path temp = null;
+    try {
+      // each copy of the game writes its own temporary file, and whichever is renamed last is the checkpoint
+      temp = Paths.get(checkpointPath + "." + ProcessHandle.current().pid() + ".tmp");
+      FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      try {
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        out.force(false); // the rename must not reach the disk before the contents do
+      } finally {
+        out.close();
+      }
+      Files.move(temp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // the old checkpoint, or the whole log, is read instead next time
+      try {
+        if (temp != null) Files.deleteIfExists(temp);
+      } catch (IOException e2) {
+      }
+    }
+  }
+
+
+  /**
+   * Copies the scores in the old text high score file into the log.
+   */
+  private void importLegacy(Path legacyPath) throws IOException {
+    if (!Files.exists(legacyPath)) return;
+    BufferedReader input = Files.newBufferedReader(legacyPath);
+    try {
+      if (!LEGACY_HEADER.equals(input.readLine())) return;
+      ArrayList<Score> scores = new ArrayList<Score>();
+      String line;
+      while ((line = input.readLine()) != null) {
+        // the score is the last word on the line, and the name is everything before it
+        StringTokenizer tokenizer = new StringTokenizer(line);
+        int words = tokenizer.countTokens();
+        if (words < 2) continue;
+        String name = tokenizer.nextToken();
+        for (int i = 2; i < words; i++) {
+          name += " " + tokenizer.nextToken();
+        }
+        try {
+          int score = Integer.parseInt(tokenizer.nextToken());
+          // the old game never scored outside this range, so such a line is not one of its scores
+          if (score < 0 || score > Leaderboard.MAX_SCORE) continue;
+          scores.add(new Score(name, 0, score, 0));
+        } catch (NumberFormatException e) {
+        }
+      }
+      // the old file is highest first, and the log is oldest first
+      for (int i = scores.size() - 1; i >= 0; i--) {
+        add(scores.get(i));
+      }
+    } finally {
+      input.close();
+    }
+  }
+
+
+  /**
+   * Writes a game as a record at the buffer's position.
+   * @param player Id of the player in the PlayerRegistry.
+   */
+  static void encode(Score s, int player, ByteBuffer buffer) {
+    int start = buffer.position();
+    buffer.putLong(s.getTime()).putLong(s.getSeed()).putInt(player).putInt(s.getLevel()).putInt(s.getScore());
+    buffer.putInt(s.getTilesLeft()).putInt(s.getMoves()).putInt(s.getDuration());
+    buffer.putInt(checksum(buffer, start, DATA_SIZE));
+  }
+
+
+  /**
+   * Reads the record at the buffer's position.
+   * @param registry The names of the players the record may refer to.
+   * @return the game, or <code>null</code> if the record's checksum is wrong or its player is not registered.
+   * @throws IOException if the registry cannot be read.
+   */
+  static Score decode(ByteBuffer buffer, PlayerRegistry registry) throws IOException {
+    int start = buffer.position();
+    long time = buffer.getLong();
+    long seed = buffer.getLong();
+    int player = buffer.getInt();
+    int level = buffer.getInt();
+    int score = buffer.getInt();
+    int tilesLeft = buffer.getInt();
+    int moves = buffer.getInt();
+    int duration = buffer.getInt();
+    if (buffer.getInt() != checksum(buffer, start, DATA_SIZE)) return null;
+    String name = registry.getName(player);
+    return name == null ? null : new Score(name, level, score, time, seed, tilesLeft, moves, duration);
+  }
+
+
+  /**
+   * Returns the CRC32C checksum of the <code>length</code> bytes of the record starting at <code>start</code>.
+   */
+  private static int checksum(ByteBuffer buffer, int start, int length) {
+    ByteBuffer data = buffer.duplicate();
+    data.limit(start + length);
+    data.position(start);
+    CRC32C crc = new CRC32C();
+    crc.update(data);
+    return (int) crc.getValue();
+  }
+}
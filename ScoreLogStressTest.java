@@ -0,0 +1,163 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Checks that several copies of the game can add scores to one ScoreLog at the same time without losing any.
+ *
+ * Starts a number of writer processes, each with a number of threads that open the same log and add scores to it as
+ * fast as they can, and waits for them to finish. Each thread adds its scores as its own player, with the scores 0,
+ * 1, 2 and so on, so when the log is opened again afterwards every player must have exactly that many games with
+ * exactly that total. The log is opened twice: once through its checkpoint, and once with the checkpoint deleted, so
+ * every record is read back from the log itself.
+ *
+ * Run with: java ScoreLogStressTest [processes [threads [scores]]]
+ * Prints what it found and exits with status 1 if any score was lost or counted twice.
+ */
+public class ScoreLogStressTest
+{
+  private static final int LEVEL = 1;
+  private static final int BOARD_SIZE = 1000;
+  /** Longest time to wait for a writer to finish, in milliseconds. */
+  private static final long TIMEOUT = 120000;
+
+
+  public static void main(String args[]) throws Exception {
+    if (args.length > 0 && args[0].equals("--writer")) {
+      write(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+      return;
+    }
+
+    int processes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int scores = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+    Path directory = Files.createTempDirectory("ScoreLogStressTest");
+    String logName = directory.resolve("HighScores.log").toString();
+
+    long start = System.nanoTime();
+    ArrayList<Process> writers = new ArrayList<Process>();
+    for (int p = 0; p < processes; p++) {
+      ProcessBuilder builder = new ProcessBuilder(
+        new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath(),
+        "-cp", System.getProperty("java.class.path"), "ScoreLogStressTest",
+        "--writer", logName, String.valueOf(p), String.valueOf(threads), String.valueOf(scores));
+      builder.inheritIO();
+      writers.add(builder.start());
+    }
+    boolean failed = false;
+    for (int p = 0; p < processes; p++) {
+      if (writers.get(p).waitFor() != 0) {
+        System.out.println("Writer " + p + " failed.");
+        failed = true;
+      }
+    }
+    System.out.println(processes + " processes of " + threads + " threads added " + (long) processes * threads * scores
+      + " scores in " + (System.nanoTime() - start) / 1000000 + " ms.");
+
+    failed |= !check(logName, processes, threads, scores, "through the checkpoint");
+    Files.deleteIfExists(directory.resolve("HighScores.log.top"));
+    failed |= !check(logName, processes, threads, scores, "from the log alone");
+
+    File files[] = directory.toFile().listFiles();
+    for (int i = 0; i < files.length; i++) {
+      files[i].delete();
+    }
+    directory.toFile().delete();
+    System.out.println(failed ? "FAILED" : "OK");
+    System.exit(failed ? 1 : 0);
+  }
+
+
+  /**
+   * A writer process: starts its threads, each adding scores through a ScoreLog of its own, and waits for them.
+   */
+  private static void write(final String logName, final int process, int threads, final int scores) throws Exception {
+    final String errors[] = new String [threads];
+    Thread writers[] = new Thread [threads];
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      writers[t] = new Thread(new Runnable() {
+        public void run() {
+          errors[thread] = addScores(logName, playerName(process, thread), scores);
+        }
+      });
+      writers[t].start();
+    }
+    boolean failed = false;
+    for (int t = 0; t < threads; t++) {
+      writers[t].join();
+      if (errors[t] != null) {
+        System.out.println("Writer " + process + ", thread " + t + ": " + errors[t]);
+        failed = true;
+      }
+    }
+    System.exit(failed ? 1 : 0);
+  }
+
+
+  /**
+   * Adds the scores 0 to scores - 1 for one player, waiting whenever the queue is full.
+   * @return the first error the log had, or <code>null</code> if there were none.
+   */
+  private static String addScores(String logName, String player, int scores) {
+    try {
+      ScoreLog log = new ScoreLog(logName, null, BOARD_SIZE);
+      for (int i = 0; i < scores; i++) {
+        while (!log.add(new ScoreLog.Score(player, LEVEL, i, System.currentTimeMillis(), i, 0, 72, 1000))) {
+          Thread.sleep(1);
+        }
+      }
+      if (!log.close(TIMEOUT)) return "The scores were not written in time.";
+      return log.takeError();
+    } catch (IOException e) {
+      return e.toString();
+    } catch (InterruptedException e) {
+      return e.toString();
+    }
+  }
+
+
+  /**
+   * Opens the log and checks that every player has all their games, each counted once.
+   * @return <code>false</code> if any were lost or counted twice.
+   */
+  private static boolean check(String logName, int processes, int threads, int scores, String how) throws IOException {
+    ScoreLog log = new ScoreLog(logName, null, BOARD_SIZE);
+    boolean ok = true;
+    String error = log.takeError();
+    if (error != null) {
+      System.out.println("Reading " + how + ": " + error);
+      ok = false;
+    }
+    long expected = (long) processes * threads * scores;
+    if (log.getGameCount(LEVEL) != expected) {
+      System.out.println("Reading " + how + ": " + log.getGameCount(LEVEL) + " games, expected " + expected + ".");
+      ok = false;
+    }
+    long total = (long) scores * (scores - 1) / 2;
+    for (int p = 0; p < processes; p++) {
+      for (int t = 0; t < threads; t++) {
+        GameStats stats = log.getPlayerStats(playerName(p, t));
+        long games = stats.getGames();
+        long sum = Math.round(stats.getMeanScore() * games);
+        if (games != scores || sum != total) {
+          System.out.println("Reading " + how + ": " + playerName(p, t) + " has " + games + " games totalling " + sum
+            + ", expected " + scores + " totalling " + total + ".");
+          ok = false;
+        }
+      }
+    }
+    log.close(TIMEOUT);
+    if (ok) {
+      System.out.println("Reading " + how + ": all " + expected + " games found, each once.");
+    }
+    return ok;
+  }
+
+
+  private static String playerName(int process, int thread) {
+    return "P" + process + "T" + thread;
+  }
+}
@@ -0,0 +1,142 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.*;
+import javax.imageio.ImageIO;
+
+/**
+ * Keeps a copy of each tile image scaled to the size it is drawn at, so each image is scaled once, the
+ * first time it is drawn, rather than on every drawImage call.
+ *
+ * Shrinking an image a long way in one bilinear step skips most of its pixels and looks grainy, so each
+ * image also has a chain of mip levels, each half the size of the one before. A scaled copy is made from
+ * the smallest level that is still at least as big as the copy, which never shrinks by more than half.
+ *
+ * The images themselves are decoded by load(), with ImageIO on a small pool of threads, so a set of images decodes
+ * in parallel while the program gets on with something else. Each image is decoded once, the first time it is
+ * loaded, and the decoded image is shared by the whole program.
+ */
+public class SpriteCache
+{
+  /** Images decoded or being decoded, by the address they were loaded from. */
+  private static final ConcurrentHashMap<String, Future<BufferedImage>> DECODED = new ConcurrentHashMap<String, Future<BufferedImage>>();
+  /** Threads images are decoded on. They are daemons, so they never keep the program running. */
+  private static final ExecutorService DECODERS = Executors.newFixedThreadPool(
+    Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())), new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Image Decoder");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+  /** Scale the images are drawn at. 1 means their original size. */
+  private final double scale;
+  /** Scaled copies of the images, keyed by the original image. */
+  private HashMap<Image, BufferedImage> sprites = new HashMap<Image, BufferedImage>();
+  /** Mip levels of the images, largest (the original) first. */
+  private HashMap<Image, ArrayList<BufferedImage>> mipLevels = new HashMap<Image, ArrayList<BufferedImage>>();
+
+
+  /**
+   * Class constructor.
+   * @param scale Scale the images are drawn at.
+   */
+  public SpriteCache(double scale) {
+    this.scale = scale;
+  }
+
+
+  /**
+   * Starts decoding an image in the background, unless it has been loaded before.
+   * @param resource Where to read the image from.
+   * @return the image, once it has been decoded. Getting it throws an ExecutionException if the image cannot be read.
+   */
+  public static Future<BufferedImage> load(final URL resource) {
+    String key = String.valueOf(resource); // not the URL itself, whose equals and hashCode look up host names
+    Future<BufferedImage> image = DECODED.get(key);
+    if (image == null) {
+      FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+        public BufferedImage call() throws IOException {
+          if (resource == null) throw new IOException("The image is missing.");
+          BufferedImage decoded = ImageIO.read(resource);
+          if (decoded == null) throw new IOException(resource + " is not an image.");
+          // copied into TYPE_INT_ARGB, the type resize gives every scaled copy, so a tile image is the same type at every
+          // scale and keeps the alpha channel some of the tiles have
+          return resize(decoded, decoded.getWidth(), decoded.getHeight());
+        }
+      });
+      image = DECODED.putIfAbsent(key, task);
+      if (image == null) {
+        image = task;
+        DECODERS.execute(task);
+      }
+    }
+    return image;
+  }
+
+
+  /**
+   * Returns a copy of an image scaled to the cache's scale, making it the first time it is asked for.
+   * @param image A fully loaded image.
+   * @return the scaled copy, or the image itself if the scale is 1.
+   */
+  public synchronized Image get(Image image) {
+    if (scale == 1) return image;
+
+    BufferedImage sprite = sprites.get(image);
+    if (sprite == null) {
+      int width = Math.max(1, (int) Math.round(image.getWidth(null) * scale));
+      int height = Math.max(1, (int) Math.round(image.getHeight(null) * scale));
+
+      // starts from the smallest mip level that is still at least as big as the sprite
+      ArrayList<BufferedImage> levels = getMipLevels(image);
+      BufferedImage source = levels.get(0);
+      for (int i = 1; i < levels.size() && levels.get(i).getWidth() >= width && levels.get(i).getHeight() >= height; i++) {
+        source = levels.get(i);
+      }
+      sprite = resize(source, width, height);
+      sprites.put(image, sprite);
+    }
+    return sprite;
+  }
+
+
+  /**
+   * Returns the mip levels of an image, making them the first time they are asked for.
+   * @param image A fully loaded image.
+   * @return the original image followed by copies of half the size of the one before, down to a few pixels.
+   */
+  private ArrayList<BufferedImage> getMipLevels(Image image) {
+    ArrayList<BufferedImage> levels = mipLevels.get(image);
+    if (levels == null) {
+      levels = new ArrayList<BufferedImage>();
+      BufferedImage level = resize(image, image.getWidth(null), image.getHeight(null));
+      levels.add(level);
+      while (level.getWidth() >= 4 && level.getHeight() >= 4) {
+        level = resize(level, level.getWidth() / 2, level.getHeight() / 2);
+        levels.add(level);
+      }
+      mipLevels.put(image, levels);
+    }
+    return levels;
+  }
+
+
+  /**
+   * Draws an image into a new translucent image of the given size using bilinear interpolation.
+   * @return the new image.
+   */
+  private static BufferedImage resize(Image image, int width, int height) {
+    BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = resized.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    g.drawImage(image, 0, 0, width, height, null);
+    g.dispose();
+    return resized;
+  }
+}
@@ -0,0 +1,248 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+/**
+ * Plays short tile animations (a removed tile fading and sliding away, a hinted tile pulsing)
+ * on a render thread of its own, so that the game thread never waits for an animation to finish.
+ *
+ * The animator advances every animation by a fixed time step of 1/60 of a second and draws a frame
+ * for each animation after each step. An animation only ever touches the small rectangle around its
+ * tile: the pixels under that rectangle are cached as a layer image when the animation starts, and
+ * each frame is composited over that layer before being drawn with a single drawImage call. The cost
+ * of a frame therefore depends on the number of animations playing, not on the number of tiles on
+ * the board.
+ *
+ * The game thread keeps drawing while animations play (the selection rectangle, or the whole board).
+ * Before compositing a frame, the animator compares the screen with the frame it drew last; any pixel
+ * that has changed was drawn by someone else, and is left alone for the rest of the animation. The
+ * screen is read and the frame drawn under the console's lock, so nothing is drawn in between.
+ *
+ * The time taken to composite and draw each frame is recorded and can be read with frameTimeSummary().
+ */
+public class TileAnimator implements Runnable
+{
+  /** Length of one time step, in nanoseconds. */
+  private static final long STEP = 1000000000L / 60;
+  /** Number of steps a removed tile takes to fade away. */
+  private static final int REMOVE_STEPS = 15;
+  /** Number of steps a hinted tile pulses for. */
+  private static final int HINT_STEPS = 90;
+  /** Distance in pixels a removed tile slides up while it fades. */
+  private static final int SLIDE = 12;
+  private static final int REMOVE = 0;
+  private static final int HINT = 1;
+  private static final Color HINT_COLOUR = new Color (0, 180, 255);
+
+  private hsa.Console c;
+  /** Animations currently playing. Guarded by this. */
+  private ArrayList<Animation> animations = new ArrayList<Animation>();
+
+  private long frameCount;
+  private long totalFrameNanos;
+  private long maxFrameNanos;
+
+
+  /**
+   * A single animation of one tile.
+   */
+  private static class Animation {
+    int kind;
+    Image tile;
+    /** Tile position. */
+    int tileX, tileY;
+    /** Rectangle of the screen the animation draws to. */
+    int x, y, width, height;
+    int step, steps;
+    /** Pixels under the rectangle, without the animation. */
+    int layer[];
+    /** Pixels of the frame last drawn. */
+    int last[];
+    /** true for pixels drawn by someone else since the animation started. */
+    boolean foreign[];
+    BufferedImage frame;
+  }
+
+
+  /**
+   * Class constructor. Starts the render thread.
+   * @param c The console the animations are drawn on.
+   */
+  public TileAnimator(hsa.Console c) {
+    this.c = c;
+    Thread thread = new Thread(this, "Tile Animator");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+
+  /**
+   * Fades a removed tile away while sliding it up. The tile must already have been erased from the screen.
+   * @param tile Image of the removed tile.
+   * @param x x-value of the top left corner of the tile.
+   * @param y y-value of the top left corner of the tile.
+   */
+  public void remove(Image tile, int x, int y) {
+    start(REMOVE, tile, x, y, x, y - SLIDE, tile.getWidth(null), tile.getHeight(null) + SLIDE, REMOVE_STEPS);
+  }
+
+
+  /**
+   * Pulses a highlight over a tile to show that it can be removed.
+   * @param tile Image of the hinted tile.
+   * @param x x-value of the top left corner of the tile.
+   * @param y y-value of the top left corner of the tile.
+   */
+  public void hint(Image tile, int x, int y) {
+    start(HINT, tile, x, y, x, y, tile.getWidth(null), tile.getHeight(null), HINT_STEPS);
+  }
+
+
+  /**
+   * Caches the layer under an animation's rectangle and adds it to the list of animations playing.
+   */
+  private void start(int kind, Image tile, int tileX, int tileY, int x, int y, int width, int height, int steps) {
+    Animation a = new Animation();
+    a.kind = kind;
+    a.tile = tile;
+    a.tileX = tileX;
+    a.tileY = tileY;
+    a.x = x;
+    a.y = y;
+    a.width = width;
+    a.height = height;
+    a.steps = steps;
+    a.layer = c.getScreenImage(x, y, width, height).getRGB(0, 0, width, height, null, 0, width);
+    a.last = a.layer.clone();
+    a.foreign = new boolean [width * height];
+    a.frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+    synchronized (this) {
+      animations.add(a);
+      notify();
+    }
+  }
+
+
+  /**
+   * Composites the current frame of an animation over its layer and draws it on the screen. The screen is read and the
+   * frame drawn in one step, under the console's lock, so the game thread cannot draw in between and be painted over.
+   * @return <code>false</code> once the animation has drawn its last frame.
+   */
+  private boolean drawFrame(final Animation a) {
+    c.composite(a.x, a.y, a.width, a.height, new hsa.ScreenCompositor() {
+      public void composite(BufferedImage screen) {
+        compositeFrame(a, screen);
+      }
+    });
+    return a.step < a.steps;
+  }
+
+
+  /**
+   * Composites the current frame of an animation over its layer, keeping any pixel the game thread has drawn.
+   * @param screen The animation's rectangle of the screen, which is replaced by the frame.
+   */
+  private void compositeFrame(Animation a, BufferedImage screen) {
+    int size = a.width * a.height;
+    int pixels[] = screen.getRGB(0, 0, a.width, a.height, null, 0, a.width);
+    for (int i = 0; i < size; i++) { // pixels that changed since the last frame belong to the game thread
+      if (pixels[i] != a.last[i]) {
+        a.foreign[i] = true;
+      }
+    }
+
+    a.frame.setRGB(0, 0, a.width, a.height, a.layer, 0, a.width);
+    if (a.step < a.steps) {
+      float t = (float) a.step / a.steps;
+      Graphics2D g = a.frame.createGraphics();
+      if (a.kind == REMOVE) {
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1 - t));
+        g.drawImage(a.tile, a.tileX - a.x, a.tileY - a.y - (int) (SLIDE * t), null);
+      } else {
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.4f * (float) Math.abs(Math.sin(Math.PI * 3 * t))));
+        g.setColor(HINT_COLOUR);
+        g.fillRect(0, 0, a.width, a.height);
+      }
+      g.dispose();
+    }
+
+    int frame[] = a.frame.getRGB(0, 0, a.width, a.height, null, 0, a.width);
+    for (int i = 0; i < size; i++) {
+      if (a.foreign[i]) {
+        frame[i] = pixels[i];
+      }
+    }
+    screen.setRGB(0, 0, a.width, a.height, frame, 0, a.width);
+    a.last = frame;
+  }
+
+
+  /**
+   * Render loop: waits for an animation, then advances all animations by fixed time steps and draws a frame after each step.
+   */
+  public void run() {
+    long nextStep = System.nanoTime();
+    while (true) {
+      Animation playing[];
+      synchronized (this) {
+        if (animations.isEmpty()) {
+          while (animations.isEmpty()) {
+            try {
+              wait();
+            } catch (InterruptedException e) {
+            }
+          }
+          nextStep = System.nanoTime();
+        }
+        playing = animations.toArray(new Animation[animations.size()]);
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < playing.length; i++) {
+        if (!drawFrame(playing[i])) {
+          synchronized (this) {
+            animations.remove(playing[i]);
+          }
+        }
+        playing[i].step++;
+      }
+      recordFrame(System.nanoTime() - start);
+
+      // sleeps until the next time step; if the frame took longer than a step, the animations skip ahead instead
+      nextStep += STEP;
+      long now = System.nanoTime();
+      while (nextStep < now) {
+        nextStep += STEP;
+        for (int i = 0; i < playing.length; i++) {
+          playing[i].step = Math.min(playing[i].step + 1, playing[i].steps);
+        }
+      }
+      try {
+        Thread.sleep((nextStep - now) / 1000000, (int) ((nextStep - now) % 1000000));
+      } catch (InterruptedException e) {
+      }
+    }
+  }
+
+
+  /**
+   * Records the time taken to draw a frame.
+   * @param nanos Time taken, in nanoseconds.
+   */
+  private synchronized void recordFrame(long nanos) {
+    frameCount++;
+    totalFrameNanos += nanos;
+    maxFrameNanos = Math.max(maxFrameNanos, nanos);
+  }
+
+
+  /**
+   * Returns a one-line summary of the frame times recorded so far.
+   * @return Number of frames, and the mean and maximum frame time in milliseconds.
+   */
+  public synchronized String frameTimeSummary() {
+    double mean = frameCount == 0 ? 0 : totalFrameNanos / (double) frameCount / 1e6;
+    return frameCount + " frames, mean " + String.format("%.3f", mean) + " ms, max " + String.format("%.3f", maxFrameNanos / 1e6) + " ms";
+  }
+}
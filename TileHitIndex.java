@@ -0,0 +1,103 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+
+/**
+ * Finds the tile under a point on the board, for selecting tiles with the mouse.
+ *
+ * The board is divided into square cells, and each cell keeps a list of the tiles that overlap it, in the
+ * order they are drawn. A point is looked up by searching only the list for its cell from the end, so the
+ * first tile found that contains the point is the one drawn on top there. A cell is smaller than a tile, so
+ * it overlaps at most four tiles of each layer, and a lookup checks at most 20 tiles.
+ * Removed tiles are taken out of the lists of the cells they overlap.
+ */
+public class TileHitIndex
+{
+  /** Width and height in pixels of a cell. */
+  private static final int CELL_SIZE = 32;
+  private int columns, rows;
+  /** Tiles overlapping each cell, row by row, in the order they are drawn. */
+  private ArrayList<ArrayList<Integer>> cells;
+  /** Bounds of each tile that has been added, by array index. */
+  private Rectangle bounds[];
+
+
+  /**
+   * Class constructor. Creates an empty index.
+   * @param width Width in pixels of the board.
+   * @param height Height in pixels of the board.
+   * @param numTiles Number of tiles on the board.
+   */
+  public TileHitIndex(int width, int height, int numTiles) {
+    columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+    rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+    cells = new ArrayList<ArrayList<Integer>>(columns * rows);
+    for (int i = 0; i < columns * rows; i++) {
+      cells.add(new ArrayList<Integer>(4));
+    }
+    bounds = new Rectangle [numTiles];
+  }
+
+
+  /**
+   * Adds a tile. Tiles must be added in the order they are drawn.
+   * @param tile Array index of the tile.
+   * @param tileBounds The part of the board the tile covers.
+   */
+  public void add(int tile, Rectangle tileBounds) {
+    bounds[tile] = tileBounds;
+    for (int row = firstCell(tileBounds.y, rows); row <= lastCell(tileBounds.y + tileBounds.height, rows); row++) {
+      for (int column = firstCell(tileBounds.x, columns); column <= lastCell(tileBounds.x + tileBounds.width, columns); column++) {
+        cells.get(row * columns + column).add(tile);
+      }
+    }
+  }
+
+
+  /**
+   * Removes a tile, so that points it covered find the tiles under it instead.
+   * @param tile Array index of the tile.
+   */
+  public void remove(int tile) {
+    Rectangle tileBounds = bounds[tile];
+    if (tileBounds == null) return;
+    for (int row = firstCell(tileBounds.y, rows); row <= lastCell(tileBounds.y + tileBounds.height, rows); row++) {
+      for (int column = firstCell(tileBounds.x, columns); column <= lastCell(tileBounds.x + tileBounds.width, columns); column++) {
+        cells.get(row * columns + column).remove(Integer.valueOf(tile));
+      }
+    }
+    bounds[tile] = null;
+  }
+
+
+  /**
+   * Finds the tile drawn on top at a point.
+   * @param x x-value of the point.
+   * @param y y-value of the point.
+   * @return the array index of the tile, or -1 if there is no tile there.
+   */
+  public int tileAt(int x, int y) {
+    if (x < 0 || y < 0 || x >= columns * CELL_SIZE || y >= rows * CELL_SIZE) return -1;
+    ArrayList<Integer> cell = cells.get((y / CELL_SIZE) * columns + x / CELL_SIZE);
+    for (int i = cell.size() - 1; i >= 0; i--) {
+      int tile = cell.get(i);
+      if (bounds[tile].contains(x, y)) return tile;
+    }
+    return -1;
+  }
+
+
+  /**
+   * Finds the first cell a range of pixels starting at <code>start</code> falls in, in one direction.
+   */
+  private static int firstCell(int start, int numCells) {
+    return Math.max(0, Math.min(numCells - 1, start / CELL_SIZE));
+  }
+
+
+  /**
+   * Finds the last cell a range of pixels ending just before <code>end</code> falls in, in one direction.
+   */
+  private static int lastCell(int end, int numCells) {
+    return Math.max(0, Math.min(numCells - 1, (end - 1) / CELL_SIZE));
+  }
+}
@@ -42,6 +42,24 @@ public class Console extends ConsoleParent
     protected ConsoleCanvasGraphics graphicsCanvas;
 
     protected static boolean mainReturned = false;
+
+    // If hsa.console.screenshots names a directory, a headless console
+    // writes the screen to it as a PNG file each time a key is read.
+    protected static final String SCREENSHOTS_PROPERTY =
+	"hsa.console.screenshots";
+    protected String screenshotDir = null;
+    protected int screenshotNumber = 0;
+    // If hsa.console.canvas is "buffered", the console is presented
+    // through a BufferStrategy by a render thread.
+    protected static final String CANVAS_PROPERTY = "hsa.console.canvas";
+    protected static final String BUFFERED_CANVAS = "buffered";
+    // If hsa.console.recording names a directory, the session is recorded
+    // to it as a sequence of PNG files until the program exits.
+    protected static final String RECORDING_PROPERTY =
+	"hsa.console.recording";
+    protected ConsoleRecorder recorder = null;
+    // Guards recorder.  Not the console itself, which getChar waits on.
+    protected final Object recorderLock = new Object ();
     
     /**
      * Creates a console using the default values of:
@@ -104,18 +122,52 @@ public class Console extends ConsoleParent
     public Console (int rows, int columns, int fontSize, String title)
     {
 	// The console canvas
-	consoleCanvas = new ConsoleCanvasGraphics (this, rows, columns,
-		fontSize);
+	if (isHeadless ())
+	{
+	    consoleCanvas = new ConsoleCanvasHeadless (this, rows, columns,
+		    fontSize);
+	    screenshotDir = System.getProperty (SCREENSHOTS_PROPERTY);
+	}
+	else if (BUFFERED_CANVAS.equals (System.getProperty (CANVAS_PROPERTY)))
+	{
+	    consoleCanvas = new ConsoleCanvasBuffered (this, rows, columns,
+		    fontSize);
+	}
+	else
+	{
+	    consoleCanvas = new ConsoleCanvasGraphics (this, rows, columns,
+		    fontSize);
+	}
 
 	// Set the graphics console
 	graphicsCanvas = (ConsoleCanvasGraphics) consoleCanvas;
 
 	// Add these to the inner panel
-	consoleCanvasPanelInner = new Panel ();
-	consoleCanvasPanelInner.setLayout (new BorderLayout ());
-	consoleCanvasPanelInner.add ("Center", consoleCanvas);
+	if (!isHeadless ())
+	{
+	    consoleCanvasPanelInner = new Panel ();
+	    consoleCanvasPanelInner.setLayout (new BorderLayout ());
+	    consoleCanvasPanelInner.add ("Center", consoleCanvas);
+	}
 
 	super.initialize (rows, columns, fontSize, title);
+
+	if (System.getProperty (RECORDING_PROPERTY) != null)
+	{
+	    startRecording (System.getProperty (RECORDING_PROPERTY));
+	    Runtime.getRuntime ().addShutdownHook (new Thread ()
+	    {
+		public void run ()
+		{
+		    String summary = stopRecording ();
+		    if (summary != null)
+		    {
+			System.err.println ("Recording: " + summary);
+		    }
+		}
+	    }
+	    );
+	}
     } // Constructor - Console (int, int, int, String)
 
 
@@ -158,6 +210,18 @@ public class Console extends ConsoleParent
     } // Constructor - Console (String)
 
 
+    /**
+     * Starts a batch of text output.  Text printed before the matching
+     * endBatch is drawn offscreen only, and is then shown on the screen
+     * in a single update rather than line by line.  Use it around a
+     * screenful of println calls.  Batches may be nested.
+     */
+    public void beginBatch ()
+    {
+	graphicsCanvas.beginTextBatch ();
+    } // beginBatch (void)
+
+
     /**
      * Clears the screen and moves the cursor to the top left corner.
      */
@@ -438,6 +502,26 @@ public class Console extends ConsoleParent
     } // drawString (String, int, int)
 
 
+    /**
+     * Takes every event waiting in the keyboard buffer, up to the
+     * length of the array, without waiting.  The events in the array are
+     * filled in rather than replaced, so the same array can be used every
+     * time.  Every element must be a ConsoleEvent.
+     *
+     * @param events The events to fill in.
+     * @return The number of events filled in.
+     */
+    public int drainEvents (ConsoleEvent[] events)
+    {
+	int count = kbdBuffer.drain (events);
+	if ((count > 0) && (screenshotDir != null))
+	{
+	    saveScreenshot ();
+	}
+	return (count);
+    } // int drainEvents (ConsoleEvent[])
+
+
     /**
      * Erases the entire line of input.     Called  when the user presses Ctrl+U
      * when typing.
@@ -493,6 +577,16 @@ public class Console extends ConsoleParent
     } // erasePreviousChar (void)
 
 
+    /**
+     * Ends a batch of text output started with beginBatch.  When the
+     * outermost batch ends, everything printed during it is shown.
+     */
+    public void endBatch ()
+    {
+	graphicsCanvas.endTextBatch ();
+    } // endBatch (void)
+
+
     /**
      * Draws a filled 3D rectangle on the screen from (x, y) to
      * (x + width, y + width).
@@ -709,9 +803,9 @@ public class Console extends ConsoleParent
      *
      * @return true if a character is ready to be read with getChar
      */
-    public synchronized boolean isCharAvail ()
+    public boolean isCharAvail ()
     {
-	return kbdBufferHead != kbdBufferTail;
+	return kbdBuffer.hasKey ();
     } // isCharAvail (void)
 
 
@@ -721,28 +815,38 @@ public class Console extends ConsoleParent
      *
      * @return The next character entered on the keyboard.
      */
-    public synchronized char getChar ()
+    public char getChar ()
     {
-	while (kbdBufferHead == kbdBufferTail)
+	if (screenshotDir != null)
 	{
-	    try
-	    {
-		setWindowTitle ("Waiting for input");
-		wait ();
-		setWindowTitle ("Running");
-	    }
-	    catch (InterruptedException e)
-	    {
-	    }
+	    saveScreenshot ();
 	}
 
-	char ch = kbdBuffer [kbdBufferTail];
-	kbdBufferTail = (kbdBufferTail + 1) % kbdBuffer.length;
-
-	return ch;
+	// Waits without a lock or a window title change, so that a key
+	// typed while waiting reaches the program as soon as possible.
+	return kbdBuffer.take ();
     } // getChar (void)
 
 
+    /**
+     * Returns the next event, either a key typed or a mouse button
+     * pressed, waiting for one if there are none.  Unlike getChar, this
+     * does not skip mouse presses.
+     *
+     * @return The event.
+     */
+    public ConsoleEvent getEvent ()
+    {
+	ConsoleEvent event = new ConsoleEvent ();
+	kbdBuffer.poll (event, -1);
+	if (screenshotDir != null)
+	{
+	    saveScreenshot ();
+	}
+	return (event);
+    } // ConsoleEvent getEvent (void)
+
+
     /**
      * Returns the current column number of the cursor.
      *
@@ -754,6 +858,51 @@ public class Console extends ConsoleParent
     } // getColumn (void)
 
 
+    /**
+     * Returns a copy of the console drawing surface.  This works whether or
+     * not the console is displayed in a window.
+     *
+     * @return A copy of the console drawing surface.
+     */
+    public BufferedImage getScreenImage ()
+    {
+	return graphicsCanvas.getScreenImage ();
+    } // BufferedImage getScreenImage (void)
+
+
+    /**
+     * Returns a copy of a rectangle of the console drawing surface.
+     *
+     * @param x The x coordinate of the top left corner of the rectangle.
+     * @param y The y coordinate of the top left corner of the rectangle.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @return A copy of the rectangle.
+     */
+    public BufferedImage getScreenImage (int x, int y, int width, int height)
+    {
+	return graphicsCanvas.getScreenImage (x, y, width, height);
+    } // BufferedImage getScreenImage (int, int, int, int)
+
+
+    /**
+     * Changes a rectangle of the console drawing surface in place.  The
+     * compositor is given a copy of the rectangle, which is drawn back
+     * once it returns.  No other thread can draw on the console in between.
+     *
+     * @param x The x coordinate of the top left corner of the rectangle.
+     * @param y The y coordinate of the top left corner of the rectangle.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @param compositor Changes the rectangle.
+     */
+    public void composite (int x, int y, int width, int height,
+	    ScreenCompositor compositor)
+    {
+	graphicsCanvas.composite (x, y, width, height, compositor);
+    } // composite (int, int, int, int, ScreenCompositor)
+
+
     /**
      * Returns the height of the console drawing surface in pixels.
      *
@@ -765,6 +914,18 @@ public class Console extends ConsoleParent
     } // int getDrawHeight (void)
 
 
+    /**
+     * Returns a one line summary of how long keystrokes waited in the
+     * keyboard buffer before the program read them.
+     *
+     * @return The number of keys read and the mean and maximum wait.
+     */
+    public String getInputLatencySummary ()
+    {
+	return kbdBuffer.latencySummary ();
+    } // String getInputLatencySummary (void)
+
+
     /**
      * Returns the number of columns in the console window.
      *
@@ -856,7 +1017,30 @@ public class Console extends ConsoleParent
 
 
     /**
-     * Write a string to the Console.
+     * Displays a message to the user and waits for it to be acknowledged.
+     * A console with a window uses a Message dialog box.  A headless
+     * console writes the message to standard output instead.
+     *
+     * @param message The message to be displayed.
+     * @param title The title of the message.
+     */
+    public void message (String message, String title)
+    {
+	if (isHeadless ())
+	{
+	    System.out.println (title + ": " + message);
+	}
+	else
+	{
+	    new Message (message, title);
+	}
+    } // message (String, String)
+
+
+    /**
+     * Write a string to the Console.  The text is drawn in runs, one per
+     * row, and appears on the screen all at once when the string has been
+     * written.
      *
      * @param text The string to be written to the Console
      */
@@ -868,6 +1052,27 @@ public class Console extends ConsoleParent
 	    text = "<null>";
 	}
 
+	graphicsCanvas.beginTextBatch ();
+	try
+	{
+	    printText (text);
+	}
+	finally
+	{
+	    graphicsCanvas.endTextBatch ();
+	}
+    } // print (String)
+
+
+    /**
+     * Writes a string to the Console, one run of characters per row.
+     * Called by print with a text batch already open.
+     *
+     * @param text The string to be written to the Console
+     */
+    private void printText (String text)
+    {
+	char[] chars = text.toCharArray ();
 	int index = 0;
 	int len = text.length ();
 	int start = 0;
@@ -892,7 +1097,7 @@ public class Console extends ConsoleParent
 	    {
 		// Draw what we have so far
 		graphicsCanvas.drawText (currentRow, currentCol,
-			text.substring (start, index), textColor, textBGColor);
+			chars, start, index - start, textColor, textBGColor);
 		currentCol += index - start;
 		actualCol = currentCol;
 	    }
@@ -942,7 +1147,7 @@ public class Console extends ConsoleParent
 		if (currentCol <= maxCol)
 		{
 		    graphicsCanvas.drawText (currentRow, currentCol,
-			    text.substring (index, index + 1), textColor, textBGColor);
+			    chars, index, 1, textColor, textBGColor);
 		    if (currentCol < maxCol)
 		    {
 			currentCol++;
@@ -974,7 +1179,7 @@ public class Console extends ConsoleParent
 			startRow--;
 		    }
 		    graphicsCanvas.drawText (currentRow, 1,
-			    text.substring (index, index + 1), textColor, textBGColor);
+			    chars, index, 1, textColor, textBGColor);
 		    currentCol = 2;
 		    actualCol = currentCol;
 		    actualRow = currentRow;
@@ -982,7 +1187,63 @@ public class Console extends ConsoleParent
 	    }
 	    start = index + 1;
 	} // while
-    } // print (String)
+    } // printText (String)
+
+
+    /**
+     * Returns the next character in the keyboard buffer without removing
+     * it or waiting for one to be typed.  The next getChar returns the
+     * same character.  Ignores characters currently in the line buffer.
+     *
+     * @return The next character, or -1 if no key is waiting.
+     */
+    public int peekChar ()
+    {
+	return kbdBuffer.peek ();
+    } // int peekChar (void)
+
+
+    /**
+     * Returns the next event if a key has been typed or a mouse button
+     * pressed, without waiting.  Keys are taken from the same buffer as
+     * getChar.
+     *
+     * @return The event, or null if no key is waiting.
+     */
+    public ConsoleEvent pollEvent ()
+    {
+	return pollEvent (0);
+    } // ConsoleEvent pollEvent (void)
+
+
+    /**
+     * Returns the next event, waiting up to a given time for a key to be
+     * typed or a mouse button pressed.  Keys are taken from the same
+     * buffer as getChar.
+     *
+     * @param timeout The longest time to wait, in milliseconds.  Use
+     *        getEvent to wait for ever.
+     * @return The event, or null if no key was typed in time.
+     * @throws IllegalArgumentException If the timeout is negative.
+     */
+    public ConsoleEvent pollEvent (long timeout)
+    {
+	if (timeout < 0)
+	{
+	    throw new IllegalArgumentException ("Negative timeout: " +
+		    timeout);
+	}
+	ConsoleEvent event = new ConsoleEvent ();
+	if (!kbdBuffer.poll (event, timeout * 1000000L))
+	{
+	    return (null);
+	}
+	if (screenshotDir != null)
+	{
+	    saveScreenshot ();
+	}
+	return (event);
+    } // ConsoleEvent pollEvent (long)
 
 
     /**
@@ -1097,6 +1358,26 @@ public class Console extends ConsoleParent
     } // char readChar (void)
 
 
+    /**
+     * Writes the drawing surface to the next numbered PNG file in the
+     * screenshot directory.
+     */
+    protected void saveScreenshot ()
+    {
+	screenshotNumber++;
+	String name = "screen" + new DecimalFormat ("0000").format (screenshotNumber) + ".png";
+	try
+	{
+	    javax.imageio.ImageIO.write (getScreenImage (), "png",
+		    new java.io.File (screenshotDir, name));
+	}
+	catch (java.io.IOException e)
+	{
+	    System.err.println ("Unable to save screenshot " + name + ": " + e);
+	}
+    } // saveScreenshot (void)
+
+
     /**
      * Sets the foreground color for any graphics.
      *
@@ -1223,6 +1504,50 @@ public class Console extends ConsoleParent
     {
 	graphicsCanvas.setXORMode (xorColor);
     } // setXORMode (Color)
+
+
+    /**
+     * Starts recording everything drawn in the console to a directory
+     * as a sequence of PNG files.  Frames are captured and written in
+     * the background; if they cannot be written fast enough, some are
+     * dropped rather than slowing the program down.  Does nothing if
+     * the console is already being recorded.
+     *
+     * @param directory The directory to write the frames to.
+     */
+    public void startRecording (String directory)
+    {
+	synchronized (recorderLock)
+	{
+	    if (recorder == null)
+	    {
+		recorder = new ConsoleRecorder (graphicsCanvas,
+			new java.io.File (directory));
+	    }
+	}
+    } // startRecording (String)
+
+
+    /**
+     * Stops recording the console, waiting for the frames already
+     * captured to be written.
+     *
+     * @return A one line summary of the recording, or null if the
+     *         console was not being recorded.
+     */
+    public String stopRecording ()
+    {
+	synchronized (recorderLock)
+	{
+	    if (recorder == null)
+	    {
+		return (null);
+	    }
+	    String summary = recorder.stop ();
+	    recorder = null;
+	    return (summary);
+	}
+    } // String stopRecording (void)
     
     
     public static void mainReturned ()
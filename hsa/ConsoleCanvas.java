@@ -10,6 +10,10 @@ package hsa;
  * Among other duties, it handles the blinking cursor and the adjustment
  * of the "Quit" button to "Close" when the main thread has finished
  * execution. (Note this only works in some envionrments.)
+ * <P>
+ * The cursors of all the canvases in a program are blinked by a single
+ * shared thread, which runs each canvas's run method every 300
+ * milliseconds.
  * <p>
  * Full documentation for the classes in the hsa package available at:
  * <br>
@@ -23,6 +27,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.print.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 abstract class ConsoleCanvas extends Canvas
     implements FocusListener, Runnable
@@ -41,6 +46,8 @@ abstract class ConsoleCanvas extends Canvas
 	"Console Cursor Thread";
     protected static final String SCREEN_UPDATER_THREAD_NAME =
 	"Screen Updater";
+    // The time between blinks of the cursor in milliseconds.
+    protected static final int CURSOR_BLINK_PERIOD = 300;
 
     /**
      * Variables for controlling the consoleCanvas pane.
@@ -54,11 +61,25 @@ abstract class ConsoleCanvas extends Canvas
      */
     protected Font font = null;
     protected int fontWidth = 0, fontHeight = 0, fontBase = 0;
+    protected FontMetrics fontMetrics;
+    // Whether each of the first 256 glyphs is exactly fontWidth wide, so
+    // that a run of them lines up with the columns when drawn in one call.
+    protected boolean[] fixedWidthGlyph;
+    // Measuring a font is slow and every Console uses the same few, so
+    // the metrics are shared between canvases, keyed by font.
+    private static Hashtable<Font, FontMetrics> fontMetricsCache =
+	new Hashtable<Font, FontMetrics> ();
+    private static Hashtable<Font, boolean[]> fixedWidthGlyphCache =
+	new Hashtable<Font, boolean[]> ();
 
     /**
      * Information about the cursor.
      */
-    protected Thread cursorThread;
+    // The scheduled blinking of this canvas's cursor.
+    protected ScheduledFuture<?> cursorTask;
+    // Blinks the cursors of every canvas.  Created by the first canvas
+    // to be displayed.
+    private static ScheduledExecutorService cursorScheduler;
     // Whether the cursor is on the visible part of the blink.  This
     // goes false/true even when cursorBlinking is 0 and there is no
     // cursor is invisible.
@@ -100,7 +121,8 @@ abstract class ConsoleCanvas extends Canvas
 	// 256 glyphs instead of using fm.getMaxAdvance to avoid double
 	// spaced glyphs.
 	font = new Font ("monospaced", Font.PLAIN, fontSize);
-	FontMetrics fm = Toolkit.getDefaultToolkit ().getFontMetrics (font);
+	FontMetrics fm = getCachedFontMetrics (font);
+	fontMetrics = fm;
 	fontHeight = fm.getHeight () + fm.getLeading ();
 	fontBase = fm.getDescent ();
 	fontWidth = 0;
@@ -108,6 +130,7 @@ abstract class ConsoleCanvas extends Canvas
 	{
 	    fontWidth = Math.max (fontWidth, fm.charWidth (ch));
 	}
+	fixedWidthGlyph = getFixedWidthGlyphs (font, fm, fontWidth);
 
 	// Set the size of the canvas.
 	numXPixels = numCols * fontWidth;
@@ -120,21 +143,24 @@ abstract class ConsoleCanvas extends Canvas
 	// Set up the focus listener
 	addFocusListener (this);
 	addKeyListener (parentConsole);
+	addMouseListener (parentConsole);
     } // Constructor - ConsoleCanvas (Console, int, int, int)
 
 
     /**
-     * Overrides addNotify in order to set up the cursor thread once
+     * Overrides addNotify in order to start blinking the cursor once
      * the canvas has been created.
      */
     public void addNotify ()
     {
 	super.addNotify ();
 
-	// Set the thread that blinks the cursor.
-	cursorThread = new Thread (this);
-	cursorThread.setName (CONSOLE_CURSOR_THREAD_NAME);
-	cursorThread.start ();
+	// Have the shared cursor thread blink this canvas's cursor.
+	if (cursorTask == null)
+	{
+	    cursorTask = getCursorScheduler ().scheduleAtFixedRate (this, 0,
+		    CURSOR_BLINK_PERIOD, TimeUnit.MILLISECONDS);
+	}
     } // addNotify method
 
 
@@ -155,9 +181,20 @@ abstract class ConsoleCanvas extends Canvas
 	    toggleCursor ();
 	}
 	cursorVisible = !cursorVisible;
+	cursorChanged ();
     } // blinkCursor (void)
 
 
+    /**
+     * Called once the state of the cursor has changed, after any calls to
+     * toggleCursor.  Canvases that draw the cursor as an overlay rather
+     * than toggling it override this to redraw it.
+     */
+    protected void cursorChanged ()
+    {
+    } // cursorChanged (void)
+
+
     /**
      * Changes the cursor from an empty square to a normal cursor.  Called by
      * the system when the ConsoleCanvas gains focus.
@@ -177,6 +214,7 @@ abstract class ConsoleCanvas extends Canvas
 	    hasFocus = true;
 	    if (cursorVisible)
 		toggleCursor ();
+	    cursorChanged ();
 	}
     } // focusGained (FocusEvent)
 
@@ -200,10 +238,80 @@ abstract class ConsoleCanvas extends Canvas
 		toggleCursor ();
 	    hasFocus = false;
 	    toggleCursor ();
+	    cursorChanged ();
 	}
     } // focusLost (FocusEvent)
 
 
+    /**
+     * Returns the FontMetrics for the specified font, measuring the font
+     * only the first time it is asked for.
+     */
+    protected static FontMetrics getCachedFontMetrics (Font font)
+    {
+	synchronized (fontMetricsCache)
+	{
+	    FontMetrics fm = fontMetricsCache.get (font);
+	    if (fm == null)
+	    {
+		fm = Toolkit.getDefaultToolkit ().getFontMetrics (font);
+		fontMetricsCache.put (font, fm);
+	    }
+	    return (fm);
+	}
+    } // FontMetrics getCachedFontMetrics (Font)
+
+
+    /**
+     * Returns, for each of the first 256 characters, whether its glyph is
+     * exactly the width of a column in the specified font.
+     */
+    protected static boolean[] getFixedWidthGlyphs (Font font,
+	    FontMetrics fm, int width)
+    {
+	synchronized (fixedWidthGlyphCache)
+	{
+	    boolean[] fixed = fixedWidthGlyphCache.get (font);
+	    if (fixed == null)
+	    {
+		int[] widths = fm.getWidths ();
+		fixed = new boolean [widths.length];
+		for (int ch = 0 ; ch < widths.length ; ch++)
+		{
+		    fixed [ch] = (widths [ch] == width);
+		}
+		fixedWidthGlyphCache.put (font, fixed);
+	    }
+	    return (fixed);
+	}
+    } // boolean[] getFixedWidthGlyphs (Font, FontMetrics, int)
+
+
+    /**
+     * Returns the scheduler shared by all canvases for blinking their
+     * cursors, creating it if necessary.  Its single thread is a daemon
+     * so that it doesn't keep the program running.
+     */
+    protected static synchronized ScheduledExecutorService getCursorScheduler ()
+    {
+	if (cursorScheduler == null)
+	{
+	    cursorScheduler = Executors.newSingleThreadScheduledExecutor (
+		    new ThreadFactory ()
+	    {
+		public Thread newThread (Runnable r)
+		{
+		    Thread thread = new Thread (r, CONSOLE_CURSOR_THREAD_NAME);
+		    thread.setDaemon (true);
+		    return (thread);
+		}
+	    }
+	    );
+	}
+	return (cursorScheduler);
+    } // ScheduledExecutorService getCursorScheduler (void)
+
+
     /**
      * Returns the current column number of the cursor.
      *
@@ -311,12 +419,18 @@ abstract class ConsoleCanvas extends Canvas
 
 
     /**
-     * Kills the cursor thread (used when the Console window is closed).
+     * Stops blinking the cursor (used when the Console window is closed).
+     * The shared cursor thread carries on blinking any other canvases.
      */
     public void killCursorThread ()
     {
 	killCursorThread = true;
-	cursorThread.interrupt ();
+	// A headless canvas is never added to a window, so its cursor is
+	// never scheduled.
+	if (cursorTask != null)
+	{
+	    cursorTask.cancel (false);
+	}
     } // killCursorThread (void)
 
 
@@ -347,33 +461,25 @@ abstract class ConsoleCanvas extends Canvas
 
 
     /**
-     * ConsoleCanvas implements the Runnable interface.  When run, this thread
-     * blinks the cursor every 300 milliseconds and checks to see whether the
-     * program has fniished execution.
+     * ConsoleCanvas implements the Runnable interface.  The shared cursor
+     * thread runs this every 300 milliseconds to blink the cursor and
+     * check whether the program has finished execution, at which point
+     * the cursor stops blinking.
      */
     public void run ()
     {
-	boolean mainIsRunning = true;
-
-	while (!killCursorThread)
+	if (killCursorThread)
 	{
-	    blinkCursor ();
+	    return;
+	}
 
-	    if (mainIsRunning && (!isMainRunning ()))
-	    {
-		mainIsRunning = false;
-		parentConsole.mainStopped ();
-		return;
-	    }
+	blinkCursor ();
 
-	    try
-	    {
-		Thread.sleep (300);
-	    }
-	    catch (Exception e)
-	    {
-	    }
-	} // while
+	if (!isMainRunning ())
+	{
+	    killCursorThread ();
+	    parentConsole.mainStopped ();
+	}
     } // run (void)
 
 
@@ -434,6 +540,7 @@ abstract class ConsoleCanvas extends Canvas
 	    }
 	    cursorBlinking--;
 	}
+	cursorChanged ();
     } // setCursorVisible (boolean)
 
 
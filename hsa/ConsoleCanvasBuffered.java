@@ -0,0 +1,247 @@
+package hsa;
+
+/**
+ * Internal to hsa package.
+ * <p>
+ * The ConsoleCanvasBuffered class is an alternative drawing surface for
+ * a Console that presents the offscreen image through a BufferStrategy
+ * instead of drawing every primitive to the screen as it is made.  It is
+ * selected by setting the hsa.console.canvas property to "buffered".
+ * <p>
+ * Drawing methods only update the offscreen image and mark the canvas
+ * dirty.  A render thread wakes once per frame and, if anything has
+ * changed, copies the offscreen image into the back buffer, draws the
+ * cursor over it and flips (or blits) the back buffer to the screen.
+ * Since the copy is made while holding the canvas lock, each frame shows
+ * the offscreen image between primitives, never in the middle of one.
+ * <p>
+ * The cursor is never drawn into the offscreen image or onto the
+ * screen.  Changing it simply marks the canvas dirty so the next frame
+ * draws it (or leaves it out).
+ * <p>
+ * Full documentation for the classes in the hsa package available at:
+ * <br>
+ *                      http://www.holtsoft.com/java/hsa_package.html
+ */
+
+import java.awt.*;
+import java.awt.image.*;
+
+class ConsoleCanvasBuffered extends ConsoleCanvasGraphics
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The name of the thread that presents frames.
+     */
+    protected static final String RENDER_THREAD_NAME = "Console Render Thread";
+    // The number of frames presented per second.
+    protected static final int FRAMES_PER_SECOND = 60;
+
+    /**
+     * Variables for controlling the render loop.
+     */
+    protected BufferStrategy bufferStrategy;
+    protected Thread renderThread;
+    // Whether the offscreen image or cursor changed since the last frame.
+    private volatile boolean dirty = true;
+    // Whether the offscreen image changed since the last frame.
+    private volatile boolean offscreenDirty = false;
+    // Used to terminate the render thread
+    private volatile boolean killRenderThread = false;
+
+    /**
+     * Creates the console canvas given the size of the screen in rows and
+     * columns and font size.
+     *
+     * @param parent The parent Console class.
+     * @param rows The height of the canvas in rows of text.
+     * @param columns The width of the canvas in columns of text.
+     * @param fontSize The size of the font in the canvas.
+     */
+    public ConsoleCanvasBuffered (ConsoleParent parent, int rows,
+	    int columns, int fontSize)
+    {
+	super (parent, rows, columns, fontSize);
+
+	// The render loop draws everything, including the background.
+	setIgnoreRepaint (true);
+    } // Constructor - ConsoleCanvasBuffered (ConsoleParent, int, int, int)
+
+
+    /**
+     * Overrides addNotify in order to create the buffer strategy and
+     * start the render thread once the canvas has a peer.
+     */
+    public void addNotify ()
+    {
+	super.addNotify ();
+
+	// Ask for page flipping, falling back to whatever the system can
+	// provide (usually blitting from a back buffer).
+	try
+	{
+	    createBufferStrategy (2, new BufferCapabilities (
+		    new ImageCapabilities (true), new ImageCapabilities (true),
+		    BufferCapabilities.FlipContents.UNDEFINED));
+	}
+	catch (AWTException e)
+	{
+	    createBufferStrategy (2);
+	}
+	bufferStrategy = getBufferStrategy ();
+
+	// ConsoleCanvas.run is the cursor blink task, so the render loop
+	// needs a Runnable of its own.
+	renderThread = new Thread (new Runnable ()
+	{
+	    public void run ()
+	    {
+		renderLoop ();
+	    }
+	}
+	);
+	renderThread.setName (RENDER_THREAD_NAME);
+	renderThread.setDaemon (true);
+	renderThread.start ();
+    } // addNotify (void)
+
+
+    /**
+     * Kills both the cursor thread and the render thread (used when the
+     * Console window is closed).
+     */
+    public void killCursorThread ()
+    {
+	super.killCursorThread ();
+	killRenderThread = true;
+	if (renderThread != null)
+	{
+	    renderThread.interrupt ();
+	}
+    } // killCursorThread (void)
+
+
+    /**
+     * Marks the canvas dirty so the primitive appears in the next frame,
+     * which tells the recorder (if any) once it has been presented.
+     */
+    protected boolean offscreenUpdated (int x, int y, int width, int height)
+    {
+	offscreenDirty = true;
+	dirty = true;
+	return (true);
+    } // boolean offscreenUpdated (int, int, int, int)
+
+
+    /**
+     * Overrides the paint method.  The render loop redraws the canvas, so
+     * all that is needed is to make sure another frame is presented.
+     */
+    public void paint (Graphics g)
+    {
+	dirty = true;
+    } // paint (Graphics)
+
+
+    /**
+     * Renders the offscreen image and cursor into the back buffer and
+     * presents it, repeating if the buffer contents were lost on the way.
+     */
+    protected void presentFrame ()
+    {
+	boolean offscreenChanged = false;
+	do
+	{
+	    do
+	    {
+		Graphics g = bufferStrategy.getDrawGraphics ();
+		synchronized (this)
+		{
+		    dirty = false;
+		    offscreenChanged |= offscreenDirty;
+		    offscreenDirty = false;
+		    drawWindowToGraphics (g);
+		    drawCursor (g);
+		}
+		g.dispose ();
+	    }
+	    while (bufferStrategy.contentsRestored ());
+
+	    bufferStrategy.show ();
+	    Toolkit.getDefaultToolkit ().sync ();
+	}
+	while (bufferStrategy.contentsLost ());
+
+	// Only now is the change on the screen.  A frame that just moved
+	// the cursor is not recorded, since the recording has no cursor.
+	if (offscreenChanged)
+	{
+	    screenChanged ();
+	}
+    } // presentFrame (void)
+
+
+    /**
+     * The render loop.  Presents a frame whenever the canvas is dirty,
+     * at most once per frame period.
+     */
+    protected void renderLoop ()
+    {
+	long framePeriod = 1000000000L / FRAMES_PER_SECOND;
+	long nextFrame = System.nanoTime ();
+
+	while (!killRenderThread)
+	{
+	    if (dirty && isDisplayable ())
+	    {
+		presentFrame ();
+	    }
+
+	    nextFrame += framePeriod;
+	    long sleepTime = nextFrame - System.nanoTime ();
+	    if (sleepTime <= 0)
+	    {
+		// We fell behind, so don't try to catch up.
+		nextFrame = System.nanoTime ();
+		continue;
+	    }
+	    try
+	    {
+		Thread.sleep (sleepTime / 1000000L, (int) (sleepTime % 1000000L));
+	    }
+	    catch (InterruptedException e)
+	    {
+	    }
+	} // while
+    } // renderLoop (void)
+
+
+    /**
+     * Marks the canvas dirty so the next frame shows the cursor in its
+     * new state.
+     */
+    protected void cursorChanged ()
+    {
+	dirty = true;
+    } // cursorChanged (void)
+
+
+    /**
+     * Marks the canvas dirty instead of drawing the cursor area straight
+     * to the screen, so the cursor only appears in a presented frame.
+     */
+    protected void presentCursor (Rectangle area)
+    {
+	dirty = true;
+    } // presentCursor (Rectangle)
+
+
+    /**
+     * Overrides the update method.  The render loop redraws the canvas.
+     */
+    public void update (Graphics g)
+    {
+	dirty = true;
+    } // update (Graphics)
+} /* ConsoleCanvasBuffered class */
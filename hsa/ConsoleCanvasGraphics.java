@@ -14,11 +14,11 @@ package hsa;
  * <p>
  * Note that most drawing methods in this class are synchronized.
  * This is because we don't want to worry about messing up the cursor.
- * When an object is drawn to the onscreen Graphics context, the cursor
- * is toggled off if necessary and then when the drawing is finished,
- * it's toggled back on.  If the thread that controls the cursor
- * blinking on and off woke up and tried to toggle the cursor in the
- * middle of the draw operations, the drawing could get messed up.
+ * The cursor is never XORed onto the screen.  It is an overlay drawn
+ * over a copy of its cell from the offscreen image, so after a primitive
+ * is drawn onscreen, the cursor cell is simply presented again if the
+ * primitive touched it.  If the cursor blinked in the middle of the
+ * draw operations, the drawing could still get messed up.
  * <p>
  * Full documentation for the classes in the hsa package available at:
  * <br>
@@ -34,6 +34,9 @@ import java.awt.image.*;
 class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 {
     protected static final int NO_SCALING = -1;
+    // How long (in milliseconds) a scroll may wait to be shown, so that
+    // several lines scrolled in quick succession share one repaint.
+    protected static final int SCROLL_PRESENT_DELAY = 15;
     /**
      * Variables for controlling the consoleCanvas pane.
      */
@@ -41,6 +44,30 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
     protected boolean inXORMode = false;
     protected Color xorColor;
     protected int cursorRow, cursorCol;
+    /**
+     * Variables for batching text output.  While a batch is open, text is
+     * only drawn to the offscreen image and the area it covered is added
+     * to textDamage, which is brought onscreen in one go when the
+     * outermost batch ends.
+     */
+    protected int textBatchDepth = 0;
+    protected Rectangle textDamage = null;
+    // Reused by every text primitive instead of creating a Graphics each time.
+    private Graphics textGraphics;
+    /**
+     * Variables for scrolling.  Scrolling moves scrollOffset instead of
+     * copying pixels: the top of the screen is stored at y = scrollOffset
+     * in the offscreen image and the rest follows, wrapping around to the
+     * top of the image.  Only the text methods draw in this layout, so
+     * every other method calls unrollScroll first.
+     */
+    protected int scrollOffset = 0;
+    // Whether a repaint has been asked for to show scrolled text.
+    protected volatile boolean scrollPresentPending = false;
+    // Used by unrollScroll to hold the screen while it is rearranged.
+    private BufferedImage scrollImage;
+    // The recorder told about each change to the screen, if any.
+    private volatile ConsoleRecorder recorder;
     /**
      * Creates the console canvas given the size of the screen in rows and
      * columns and font size.
@@ -70,44 +97,75 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
     {
 	super.addNotify ();
 
-	// Create the offscreen bitmap
-	offscreenImage = createImage (numXPixels, numYPixels);
-	Graphics offscreenGraphics = offscreenImage.getGraphics ();
-	offscreenGraphics.setFont (font);
-
-	// Clear the screen to white
-	offscreenGraphics.setColor (Color.white);
-	offscreenGraphics.fillRect (0, 0, numXPixels, numYPixels);
+	synchronized (this)
+	{
+	    // Create the offscreen bitmap
+	    offscreenImage = createImage (numXPixels, numYPixels);
+	    Graphics offscreenGraphics = offscreenImage.getGraphics ();
+	    offscreenGraphics.setFont (font);
+
+	    // Clear the screen to white
+	    offscreenGraphics.setColor (Color.white);
+	    offscreenGraphics.fillRect (0, 0, numXPixels, numYPixels);
+
+	    // The text Graphics and the scroll position belong to the old
+	    // image, if the canvas has been created before.
+	    if (textGraphics != null)
+	    {
+		textGraphics.dispose ();
+		textGraphics = null;
+	    }
+	    scrollOffset = 0;
+	}
     } // addNotify (void)
 
 
+    /**
+     * Opens a text batch.  Until the matching endTextBatch, text drawn
+     * with drawText, clearToEOL and scrollUpALine only updates the
+     * offscreen image.  Batches may be nested.
+     */
+    public synchronized void beginTextBatch ()
+    {
+	textBatchDepth++;
+    } // beginTextBatch (void)
+
+
+    /**
+     * Called whenever the cursor blinks, moves between focused and
+     * unfocused or starts or stops blinking.  Presents the cursor cell.
+     */
+    protected void cursorChanged ()
+    {
+	presentCursor (getCursorBounds ());
+    } // cursorChanged (void)
+
+
     /**
      * Clears a rectangle on the console canvas.
      */
     public synchronized void clearRect (int x, int y, int width,
 	    int height)
     {
+	unrollScroll ();
 	Graphics offscreenGraphics = offscreenImage.getGraphics ();
 	Graphics onscreenGraphics = getGraphics ();
 
 	// First clear the rectangle on the offscreen image.
 	offscreenGraphics.clearRect (x, y, width, height);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width, height))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then clear the rectangle on the onscreen image.
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
 	onscreenGraphics.translate (MARGIN, MARGIN);
 	onscreenGraphics.clearRect (x, y, width, height);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width, height);
     } // clearRect (int, int, int, int)
 
 
@@ -119,26 +177,27 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = offscreenImage.getGraphics ();
 	Graphics onscreenGraphics = getGraphics ();
 
+	// The whole image is about to be erased, so there is nothing to
+	// unroll.
+	scrollOffset = 0;
+
 	// Erase the offscreen bitmap.
 	offscreenGraphics.setColor (bgColor);
 	offscreenGraphics.fillRect (0, 0, numXPixels, numYPixels);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (0, 0, numXPixels, numYPixels))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Erase the onscreen window.
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
 	onscreenGraphics.translate (MARGIN, MARGIN);
 	onscreenGraphics.setColor (bgColor);
 	onscreenGraphics.fillRect (0, 0, numXPixels, numYPixels);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (0, 0, numXPixels, numYPixels);
     } // clearScreen (Color)
 
 
@@ -151,32 +210,65 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	int x = (col - 1) * fontWidth;
 	int y = (row - 1) * fontHeight;
 	int len = numXPixels - x;
-	Graphics offscreenGraphics = offscreenImage.getGraphics ();
-	Graphics onscreenGraphics = getGraphics ();
+	Graphics offscreenGraphics = getTextGraphics ();
 
 	// First clear the rectangle on the offscreen image.
 	offscreenGraphics.setColor (bgColor);
-	offscreenGraphics.fillRect (x, y, len, fontHeight);
+	offscreenGraphics.fillRect (x, getScrolledY (y), len, fontHeight);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas (or the open text batch) decide how the screen
+	// catches up with the offscreen image.
+	if (textUpdated (x, y, len, fontHeight))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then clear the rectangle on the onscreen image.
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	Graphics onscreenGraphics = getGraphics ();
 	onscreenGraphics.translate (MARGIN, MARGIN);
 	onscreenGraphics.setColor (bgColor);
 	onscreenGraphics.fillRect (x, y, len, fontHeight);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, len, fontHeight);
     } // clearToEOL (int, int, Color)
 
 
+    /**
+     * Closes a text batch.  When the outermost batch is closed, the
+     * smallest rectangle containing all the text drawn during the batch
+     * is copied from the offscreen image to the screen.
+     */
+    public synchronized void endTextBatch ()
+    {
+	if (textBatchDepth > 0)
+	{
+	    textBatchDepth--;
+	}
+	if ((textBatchDepth > 0) || (textDamage == null))
+	{
+	    return;
+	}
+
+	Rectangle damage = textDamage;
+	textDamage = null;
+
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (damage.x, damage.y, damage.width, damage.height))
+	{
+	    return;
+	}
+
+	Graphics onscreenGraphics = getGraphics ();
+	onscreenGraphics.translate (MARGIN, MARGIN);
+	onscreenGraphics.clipRect (damage.x, damage.y, damage.width,
+		damage.height);
+	drawOffscreenImage (onscreenGraphics, 0, 0, this);
+
+	repairCursor (damage.x, damage.y, damage.width, damage.height);
+    } // endTextBatch (void)
+
+
     /**
      * Copies an area of the screen from (x, y) to (x + width, y + height) onto
      * the screen with top corner at (x + delta_x, y + delta_y).
@@ -184,6 +276,7 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
     public synchronized void copyArea (int x, int y, int width,
 	    int height, int deltaX, int deltaY)
     {
+	unrollScroll ();
 	Graphics offscreenGraphics = offscreenImage.getGraphics ();
 	Graphics onscreenGraphics = getGraphics ();
 
@@ -194,18 +287,17 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	// We can't use copyArea because there may be windows in front
 	// of the console obscuring the screen.
 	// Copy offscreen image
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x + deltaX, y + deltaY, width, height))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	onscreenGraphics.translate (MARGIN, MARGIN);
 	onscreenGraphics.drawImage (offscreenImage, 0, 0, this);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x + deltaX, y + deltaY, width, height);
     } // copyArea (int, int, int, int, int, int)
 
 
@@ -220,19 +312,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.draw3DRect (x, y, width, height, raised);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width + 1, height + 1))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the 3-D rect to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.draw3DRect (x, y, width, height, raised);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width + 1, height + 1);
     } // draw3DRect (int, int, int, int, boolean, Color)
 
 
@@ -248,19 +339,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.drawArc (x, y, width, height, startAngle, arcAngle);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width + 1, height + 1))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.drawArc (x, y, width, height, startAngle, arcAngle);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width + 1, height + 1);
     } // drawArc (int, int, int, int, int, int, Color)
 
 
@@ -274,19 +364,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (Color.black);
 	offscreenGraphics.drawImage (img, x, y, obs);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, img.getWidth (obs), img.getHeight (obs)))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (Color.black);
 	onscreenGraphics.drawImage (img, x, y, obs);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, img.getWidth (obs), img.getHeight (obs));
     } // drawImage
 
 
@@ -300,19 +389,20 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.drawLine (x1, y1, x2, y2);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (Math.min (x1, x2), Math.min (y1, y2),
+		Math.abs (x2 - x1) + 1, Math.abs (y2 - y1) + 1))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.drawLine (x1, y1, x2, y2);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (Math.min (x1, x2), Math.min (y1, y2),
+		Math.abs (x2 - x1) + 1, Math.abs (y2 - y1) + 1);
     } // drawLine (int, int, int, int, Color)
 
 
@@ -327,19 +417,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.drawOval (x, y, width, height);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width + 1, height + 1))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.drawOval (x, y, width, height);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width + 1, height + 1);
     } // drawOval (int, int, int, int, Color)
 
 
@@ -353,19 +442,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.drawPolygon (xPoints, yPoints, nPoints);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (0, 0, numXPixels, numYPixels))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the filled polgon to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.drawPolygon (xPoints, yPoints, nPoints);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (0, 0, numXPixels, numYPixels);
     } // drawPolygon (int[], int[], int, Color)
 
 
@@ -380,19 +468,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.drawRect (x, y, width, height);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width + 1, height + 1))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.drawRect (x, y, width, height);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width + 1, height + 1);
     } // drawRect (int, int, int, int, Color)
 
 
@@ -408,20 +495,19 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	offscreenGraphics.drawRoundRect (x, y, width, height, arcWidth,
 		arcHeight);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width + 1, height + 1))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.drawRoundRect (x, y, width, height, arcWidth,
 		arcHeight);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width + 1, height + 1);
     } // drawRoundRect (int, int, int, int, int, int, Color)
 
 
@@ -436,20 +522,19 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	offscreenGraphics.setFont (font);
 	offscreenGraphics.drawString (str, x, y);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (0, 0, numXPixels, numYPixels))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.setFont (font);
 	onscreenGraphics.drawString (str, x, y);
 
-	if (cursorVisible)
-	    toggleCursor ();
+	repairCursor (0, 0, numXPixels, numYPixels);
     } // drawLine (int, int, int, int, Color)
 
 
@@ -457,50 +542,151 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
      * Draws the specified text to the screen at the specified row and column
      * using the specified foreground and background colours.
      */
-    public synchronized void drawText (int row, int col, String text,
+    public void drawText (int row, int col, String text,
 	    Color fgColor, Color bgColor)
+    {
+	drawText (row, col, text.toCharArray (), 0, text.length (),
+		fgColor, bgColor);
+    } // drawText (int, int, String, Color, Color)
+
+
+    /**
+     * Draws length characters of the specified array, starting at offset,
+     * to the screen at the specified row and column using the specified
+     * foreground and background colours.  The background of the whole run
+     * is filled once and the glyphs are drawn with as few calls as
+     * possible.
+     */
+    public synchronized void drawText (int row, int col, char[] chars,
+	    int offset, int length, Color fgColor, Color bgColor)
     {
 	int x = (col - 1) * fontWidth;
 	int y = (row - 1) * fontHeight;
-	Graphics offscreenGraphics = offscreenImage.getGraphics ();
-	Graphics onscreenGraphics = getGraphics ();
+	int width = fontWidth * length;
+	Graphics offscreenGraphics = getTextGraphics ();
 
 	// First draw it to the offscreen image.
 
 	// Erase the area that the image will appear on.
+	int scrolledY = getScrolledY (y);
 	offscreenGraphics.setColor (bgColor);
-	offscreenGraphics.fillRect (x, y, fontWidth * text.length (), fontHeight);
+	offscreenGraphics.fillRect (x, scrolledY, width, fontHeight);
 
 	// Draw the text
 	offscreenGraphics.setColor (fgColor);
-	offscreenGraphics.setFont (font);
-	offscreenGraphics.drawString (text, x, y + fontHeight - fontBase);
+	drawGlyphs (offscreenGraphics, chars, offset, length,
+		x, scrolledY + fontHeight - fontBase);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas (or the open text batch) decide how the screen
+	// catches up with the offscreen image.
+	if (textUpdated (x, y, width, fontHeight))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
-	if (cursorVisible)
-	    toggleCursor ();
 
 	// Then draw the string to the onscreen image.
+	Graphics onscreenGraphics = getGraphics ();
 
 	// Erase the area that the image will appear on.
 	onscreenGraphics.translate (MARGIN, MARGIN);
 	onscreenGraphics.setColor (bgColor);
-	onscreenGraphics.fillRect (x, y, fontWidth * text.length (), fontHeight);
+	onscreenGraphics.fillRect (x, y, width, fontHeight);
 
 	// Draw the text
 	onscreenGraphics.setColor (fgColor);
 	onscreenGraphics.setFont (font);
-	onscreenGraphics.drawString (text, x, y + fontHeight - fontBase);
+	drawGlyphs (onscreenGraphics, chars, offset, length,
+		x, y + fontHeight - fontBase);
 
-	if (cursorVisible)
-	    toggleCursor ();
-    } // drawText (int, int, String, Color, Color)
+	repairCursor (x, y, width, fontHeight);
+    } // drawText (int, int, char[], int, int, Color, Color)
+
+
+    /**
+     * Draws a run of characters with its first glyph at (x, y).  Glyphs
+     * that are exactly one column wide are drawn together with a single
+     * drawChars call.  Any other glyph is drawn on its own at its column,
+     * so that it can't push the rest of the run out of line.
+     */
+    protected void drawGlyphs (Graphics g, char[] chars, int offset,
+	    int length, int x, int y)
+    {
+	int start = offset;
+	int end = offset + length;
+
+	for (int i = offset ; i < end ; i++)
+	{
+	    char ch = chars [i];
+	    if ((ch >= fixedWidthGlyph.length) || !fixedWidthGlyph [ch])
+	    {
+		if (i > start)
+		{
+		    g.drawChars (chars, start, i - start,
+			    x + (start - offset) * fontWidth, y);
+		}
+		g.drawChars (chars, i, 1, x + (i - offset) * fontWidth, y);
+		start = i + 1;
+	    }
+	}
+	if (end > start)
+	{
+	    g.drawChars (chars, start, end - start,
+		    x + (start - offset) * fontWidth, y);
+	}
+    } // drawGlyphs (Graphics, char[], int, int, int, int)
+
+
+    /**
+     * Draws the cursor over the Graphics object (whose origin is the top
+     * left corner of the canvas), if it is currently visible.
+     */
+    protected void drawCursor (Graphics g)
+    {
+	if (isCursorShown ())
+	{
+	    int x = (getCurrentColumn () - 1) * fontWidth;
+	    int y = (getCurrentRow () - 1) * fontHeight;
+
+	    g.translate (MARGIN, MARGIN);
+	    g.setColor (Color.white);
+	    g.setXORMode (Color.black);
+	    if (hasFocus)
+	    {
+		g.fillRect (x, y, fontWidth, fontHeight);
+	    }
+	    else
+	    {
+		g.drawRect (x, y, fontWidth, fontHeight);
+	    }
+	    g.setPaintMode ();
+	    g.translate (-MARGIN, -MARGIN);
+	}
+    } // drawCursor (Graphics)
+
+
+    /**
+     * Draws the offscreen image with the top of the screen at (x, y),
+     * taking scrollOffset into account.  Must be called with the lock
+     * held, since scrolling moves scrollOffset and rearranges the image.
+     */
+    protected void drawOffscreenImage (Graphics g, int x, int y,
+	    ImageObserver obs)
+    {
+	if (scrollOffset == 0)
+	{
+	    g.drawImage (offscreenImage, x, y, obs);
+	    return;
+	}
+
+	// The screen starts at scrollOffset and wraps around to the top
+	// of the offscreen image.
+	int split = numYPixels - scrollOffset;
+	g.drawImage (offscreenImage, x, y, x + numXPixels, y + split,
+		0, scrollOffset, numXPixels, numYPixels, obs);
+	g.drawImage (offscreenImage, x, y + split, x + numXPixels,
+		y + numYPixels, 0, 0, numXPixels, scrollOffset, obs);
+    } // drawOffscreenImage (Graphics, int, int, ImageObserver)
 
 
     /**
@@ -519,8 +705,12 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 		    numXPixels + 2 * cnt - 1, numYPixels + 2 * cnt - 1);
 	}
 
-	// Copy offscreen image
-	g.drawImage (offscreenImage, 0, 0, this);
+	// Copy offscreen image.  The game thread may be scrolling it, so
+	// the lock is held until it has been copied.
+	synchronized (this)
+	{
+	    drawOffscreenImage (g, 0, 0, this);
+	}
 
 	g.translate (-MARGIN, -MARGIN);
     } // drawWindowToGraphics method
@@ -554,6 +744,10 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	}
 
 	// Copy offscreen image
+	synchronized (this)
+	{
+	    unrollScroll ();
+	}
 	g.drawImage (offscreenImage, 0, 0, xSize, ySize, this);
 
 	g.translate (-MARGIN - 2, -MARGIN - 2);
@@ -577,19 +771,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.fill3DRect (x, y, width, height, raised);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width + 1, height + 1))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.fill3DRect (x, y, width, height, raised);
 
-	if (cursorVisible)
-	    toggleCursor ();
+	repairCursor (x, y, width + 1, height + 1);
     } // fill3DRect (int, int, int, int, boolean, Color)
 
 
@@ -606,19 +799,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	offscreenGraphics.setColor (color);
 	offscreenGraphics.fillArc (x, y, width, height, startAngle, arcAngle);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width, height))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.fillArc (x, y, width, height, startAngle, arcAngle);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width, height);
     } // fillArc (int, int, int, int, int, int, Color)
 
 
@@ -633,19 +825,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.fillOval (x, y, width, height);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width, height))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the filled oval to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.fillOval (x, y, width, height);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width, height);
     } // fillOval (int, int, int, int, Color)
 
 
@@ -659,19 +850,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.fillPolygon (xPoints, yPoints, nPoints);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (0, 0, numXPixels, numYPixels))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the filled polgon to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.fillPolygon (xPoints, yPoints, nPoints);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (0, 0, numXPixels, numYPixels);
     } // fillPolygon (int[], int[], int, Color)
 
 
@@ -686,19 +876,18 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	Graphics offscreenGraphics = getOffscreenGraphics (color);
 	offscreenGraphics.fillRect (x, y, width, height);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width, height))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.fillRect (x, y, width, height);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width, height);
     } // fillRect (int, int, int, int, Color)
 
 
@@ -714,20 +903,19 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
 	offscreenGraphics.fillRoundRect (x, y, width, height, arcWidth,
 		arcHeight);
 
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+	// Let the canvas decide how the screen catches up with the
+	// offscreen image.
+	if (offscreenUpdated (x, y, width, height))
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
 	// Then draw the line to the onscreen image.
 	Graphics onscreenGraphics = getOnscreenGraphics (color);
 	onscreenGraphics.fillRoundRect (x, y, width, height, arcWidth,
 		arcHeight);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	repairCursor (x, y, width, height);
     } // fillRoundRect (int, int, int, int, int, int, Color)
 
 
@@ -770,6 +958,7 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
      */
     protected Graphics getOffscreenGraphics (Color color)
     {
+	unrollScroll ();
 	Graphics offscreenGraphics = offscreenImage.getGraphics ();
 
 	// First draw the line to the offscreen image.
@@ -781,6 +970,43 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
     } // getOffscreenGraphics (Color)
 
 
+    /**
+     * Returns the area of the screen covered by the cursor (the outline
+     * drawn when the canvas doesn't have focus is a pixel larger).
+     */
+    protected Rectangle getCursorBounds ()
+    {
+	return new Rectangle ((getCurrentColumn () - 1) * fontWidth,
+		(getCurrentRow () - 1) * fontHeight, fontWidth + 1,
+		fontHeight + 1);
+    } // Rectangle getCursorBounds (void)
+
+
+    /**
+     * Returns where the screen y coordinate of a row of text is stored in
+     * the offscreen image, given the current scrollOffset.
+     */
+    protected int getScrolledY (int y)
+    {
+	return ((y + scrollOffset) % numYPixels);
+    } // int getScrolledY (int)
+
+
+    /**
+     * Returns the Graphics object used to draw text to the offscreen
+     * image.  It is created the first time it is needed and then reused.
+     */
+    protected Graphics getTextGraphics ()
+    {
+	if (textGraphics == null)
+	{
+	    textGraphics = offscreenImage.getGraphics ();
+	    textGraphics.setFont (font);
+	}
+	return (textGraphics);
+    } // Graphics getTextGraphics (void)
+
+
     /**
      * Returns the Graphics object associated with the ConsoleCanvas.
      * Turns off the cursor (if necessary), sets the drawing mode,
@@ -792,8 +1018,6 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
     {
 	Graphics onscreenGraphics = getGraphics ();
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
 	if (inXORMode)
 	    onscreenGraphics.setXORMode (xorColor);
 	onscreenGraphics.translate (MARGIN, MARGIN);
@@ -815,23 +1039,198 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
     } // int getDrawingAreaWidth (void)
 
 
+    /**
+     * Returns a copy of the drawing surface as it currently appears in
+     * the offscreen image.
+     *
+     * @return A copy of the drawing surface.
+     */
+    public BufferedImage getScreenImage ()
+    {
+	return getScreenImage (0, 0, numXPixels, numYPixels);
+    } // BufferedImage getScreenImage (void)
+
+
+    /**
+     * Returns a copy of a rectangle of the drawing surface as it currently
+     * appears in the offscreen image.  Any part of the rectangle outside
+     * the drawing surface is black.
+     *
+     * @param x The x coordinate of the top left corner of the rectangle.
+     * @param y The y coordinate of the top left corner of the rectangle.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @return A copy of the rectangle.
+     */
+    public synchronized BufferedImage getScreenImage (int x, int y,
+	    int width, int height)
+    {
+	BufferedImage image = new BufferedImage (width, height,
+		BufferedImage.TYPE_INT_RGB);
+	Graphics g = image.getGraphics ();
+	drawOffscreenImage (g, -x, -y, null);
+	g.dispose ();
+	return (image);
+    } // BufferedImage getScreenImage (int, int, int, int)
+
+
+    /**
+     * Reads a rectangle of the drawing surface, lets a compositor change
+     * it and draws it back, all while holding the lock every drawing
+     * method takes, so nothing drawn by another thread in between is
+     * painted over.
+     *
+     * @param x The x coordinate of the top left corner of the rectangle.
+     * @param y The y coordinate of the top left corner of the rectangle.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @param compositor Changes the rectangle.
+     */
+    public synchronized void composite (int x, int y, int width,
+	    int height, ScreenCompositor compositor)
+    {
+	BufferedImage image = getScreenImage (x, y, width, height);
+	compositor.composite (image);
+	drawImage (image, x, y, null);
+    } // composite (int, int, int, int, ScreenCompositor)
+
+
+    /**
+     * Called by each drawing method once the primitive has been drawn to
+     * the offscreen image.  Returns true if the onscreen image will be
+     * brought up to date some other way, in which case the caller does
+     * not draw the primitive onscreen itself.
+     *
+     * @param x The x coordinate of the area that changed.
+     * @param y The y coordinate of the area that changed.
+     * @param width The width of the area that changed.
+     * @param height The height of the area that changed.
+     * @return Whether the caller should skip drawing onscreen.
+     */
+    protected boolean offscreenUpdated (int x, int y, int width, int height)
+    {
+	screenChanged ();
+
+	// MacOS X seems to have a problem.  Only repainting seems to work.
+	if (macOSX)
+	{
+	    repaint ();
+	    return (true);
+	}
+	return (false);
+    } // boolean offscreenUpdated (int, int, int, int)
+
+
+    /**
+     * Sets the recorder to tell about changes to the screen, or null to
+     * stop telling one.
+     */
+    protected void setRecorder (ConsoleRecorder recorder)
+    {
+	this.recorder = recorder;
+    } // setRecorder (ConsoleRecorder)
+
+
+    /**
+     * Called whenever the screen has been brought up to date with a
+     * change to the offscreen image.  Lets the recorder, if there is one,
+     * know there is a new frame to capture.
+     */
+    protected void screenChanged ()
+    {
+	ConsoleRecorder current = recorder;
+	if (current != null)
+	{
+	    current.screenChanged ();
+	}
+    } // screenChanged (void)
+
+
+    /**
+     * Called by the text drawing methods in place of offscreenUpdated.
+     * While a text batch is open, the area is added to the batch's damage
+     * and the caller skips drawing onscreen.
+     */
+    protected boolean textUpdated (int x, int y, int width, int height)
+    {
+	if (textBatchDepth > 0)
+	{
+	    Rectangle area = new Rectangle (x, y, width, height);
+	    if (textDamage == null)
+	    {
+		textDamage = area;
+	    }
+	    else
+	    {
+		textDamage.add (area);
+	    }
+	    return (true);
+	}
+	if (scrollPresentPending)
+	{
+	    // The repaint that shows the scroll will show this too.
+	    return (true);
+	}
+	return (offscreenUpdated (x, y, width, height));
+    } // boolean textUpdated (int, int, int, int)
+
+
+    /**
+     * Returns whether the cursor should currently be drawn.
+     */
+    protected boolean isCursorShown ()
+    {
+	return ((cursorBlinking > 0) && (cursorVisible || !hasFocus));
+    } // boolean isCursorShown (void)
+
+
     /**
      * Overrides the paint method to redraw the screen using doDraw
      */
     public void paint (Graphics g)
     {
-	// Under OSX the entire screen is repaint, so don't wait.
-	if (!macOSX)
+	synchronized (this)
 	{
-	    if (cursorVisible)
-		toggleCursor ();
+	    // This paint shows any scrolling still waiting to be shown.
+	    if (scrollPresentPending)
+	    {
+		scrollPresentPending = false;
+		screenChanged ();
+	    }
+
+	    drawWindowToGraphics (g);
+	    drawCursor (g);
 	}
+    } // paint (Graphics)
 
-	drawWindowToGraphics (g);
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
-    } // paint (Graphics)
+    /**
+     * Redraws an area of the screen from the offscreen image and draws
+     * the cursor over it.  Since the area is always redrawn from the
+     * offscreen image first, this can be called any number of times.
+     */
+    protected synchronized void presentCursor (Rectangle area)
+    {
+	// Until the scroll is shown, the screen and the offscreen image
+	// don't line up.  The repaint draws the cursor anyway.
+	if (scrollPresentPending || macOSX)
+	{
+	    repaint ();
+	    return;
+	}
+
+	Graphics g = getGraphics ();
+	if (g == null)
+	{
+	    return;
+	}
+	g.clipRect (area.x + MARGIN, area.y + MARGIN, area.width, area.height);
+	g.translate (MARGIN, MARGIN);
+	drawOffscreenImage (g, 0, 0, this);
+	g.translate (-MARGIN, -MARGIN);
+	drawCursor (g);
+	g.dispose ();
+    } // presentCursor (Rectangle)
 
 
     /**
@@ -858,45 +1257,79 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
     // } // void saveContents (void)
 
 
+    /**
+     * Called after a primitive has been drawn onscreen.  If it touched
+     * the cursor, the cursor cell is presented again.
+     */
+    protected void repairCursor (int x, int y, int width, int height)
+    {
+	if (isCursorShown () &&
+		getCursorBounds ().intersects (x, y, width, height))
+	{
+	    presentCursor (getCursorBounds ());
+	}
+    } // repairCursor (int, int, int, int)
+
+
     /**
      * Scrolls up the entire ConsoleCanvas a single line.  The blank space at
      * the bottom is filled in the specified colour.
+     * <p>
+     * Only a single line of the offscreen image is touched: the top line
+     * is erased and becomes the bottom line by moving scrollOffset down
+     * a line.  The screen is brought up to date by a repaint shortly
+     * afterwards, so a stream of output that scrolls many lines only
+     * copies the screen once.
      */
     public synchronized void scrollUpALine (Color bgColor)
     {
-	Graphics offscreenGraphics = offscreenImage.getGraphics ();
-	Graphics onscreenGraphics = getGraphics ();
+	Graphics offscreenGraphics = getTextGraphics ();
 
-	// First scroll the offscreen image.
+	// Erase the top line, which becomes the last line.
+	offscreenGraphics.setColor (bgColor);
+	offscreenGraphics.fillRect (0, scrollOffset, numXPixels, fontHeight);
+	scrollOffset = (scrollOffset + fontHeight) % numYPixels;
 
-	// Scroll the screen up
-	offscreenGraphics.copyArea (0, fontHeight, numXPixels,
-		numYPixels - fontHeight, 0, -fontHeight);
+	// Let the canvas (or the open text batch) decide how the screen
+	// catches up with the offscreen image.
+	if (textUpdated (0, 0, numXPixels, numYPixels))
+	{
+	    return;
+	}
 
-	// Erase the last line
-	offscreenGraphics.setColor (bgColor);
-	offscreenGraphics.fillRect (0, numYPixels - fontHeight, numXPixels,
-		fontHeight);
+	// Until the repaint happens, text is only drawn offscreen, since
+	// the screen hasn't scrolled yet.
+	scrollPresentPending = true;
+	repaint (SCROLL_PRESENT_DELAY);
+    } // scrollUpALine (Color)
 
-	// Then scroll the onscreen image.
 
-	// Update the onscreen image from the offscreen image
-	// We can't use copyArea because there may be windows in front
-	// of the console obscuring the screen.
-	// Copy offscreen image
-	// MacOS X seems to have a problem.  Only repainting seems to work.
-	if (macOSX)
+    /**
+     * Rearranges the offscreen image so that the top of the screen is at
+     * the top of the image again.  Called before anything other than
+     * text is drawn, since only the text methods allow for scrollOffset.
+     */
+    protected void unrollScroll ()
+    {
+	if (scrollOffset == 0)
 	{
-	    repaint ();
 	    return;
-	} // if (macOSX)
+	}
 
-	onscreenGraphics.translate (MARGIN, MARGIN);
-	onscreenGraphics.drawImage (offscreenImage, 0, 0, this);
+	if (scrollImage == null)
+	{
+	    scrollImage = new BufferedImage (numXPixels, numYPixels,
+		    BufferedImage.TYPE_INT_RGB);
+	}
+	Graphics g = scrollImage.getGraphics ();
+	drawOffscreenImage (g, 0, 0, null);
+	g.dispose ();
+	scrollOffset = 0;
 
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
-    } // scrollUpALine (Color)
+	g = offscreenImage.getGraphics ();
+	g.drawImage (scrollImage, 0, 0, null);
+	g.dispose ();
+    } // unrollScroll (void)
 
 
     /**
@@ -904,15 +1337,26 @@ class ConsoleCanvasGraphics extends ConsoleCanvas implements DrawGraphics
      */
     public synchronized void setCursorPos (int row, int col)
     {
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	Rectangle oldCursor = getCursorBounds ();
 	cursorRow = row;
 	cursorCol = col;
-	if (cursorVisible || !hasFocus)
-	    toggleCursor ();
+	if (isCursorShown ())
+	{
+	    presentCursor (oldCursor);
+	    presentCursor (getCursorBounds ());
+	}
     } // setCursorPos (int, int)
 
 
+    /**
+     * Does nothing.  The cursor is presented by cursorChanged and
+     * repairCursor rather than being XORed on and off.
+     */
+    protected void toggleCursor ()
+    {
+    } // toggleCursor (void)
+
+
     /**
      * Sets the drawing mode for any graphics to "Paint".
      */
@@ -0,0 +1,79 @@
+package hsa;
+
+/**
+ * Internal to hsa package.
+ * <p>
+ * The ConsoleCanvasHeadless class is the drawing surface used by a
+ * Console when there is no screen to draw on, either because AWT is
+ * running headless (-Djava.awt.headless=true) or because the
+ * hsa.console.headless property is set.
+ * <p>
+ * Everything is drawn only to the offscreen image, which is a
+ * BufferedImage created up front rather than in addNotify, since the
+ * canvas is never placed in a window.  There is no cursor to blink and
+ * nothing to invert.  The contents can be read back with
+ * getScreenImage.
+ * <p>
+ * Full documentation for the classes in the hsa package available at:
+ * <br>
+ *                      http://www.holtsoft.com/java/hsa_package.html
+ */
+
+import java.awt.*;
+import java.awt.image.*;
+
+class ConsoleCanvasHeadless extends ConsoleCanvasGraphics
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the headless canvas given the size of the screen in rows
+     * and columns and font size.
+     *
+     * @param parent The parent Console class.
+     * @param rows The height of the canvas in rows of text.
+     * @param columns The width of the canvas in columns of text.
+     * @param fontSize The size of the font in the canvas.
+     */
+    public ConsoleCanvasHeadless (ConsoleParent parent, int rows,
+	    int columns, int fontSize)
+    {
+	super (parent, rows, columns, fontSize);
+
+	// Create the offscreen bitmap and clear it to white
+	offscreenImage = new BufferedImage (numXPixels, numYPixels,
+		BufferedImage.TYPE_INT_RGB);
+	Graphics offscreenGraphics = offscreenImage.getGraphics ();
+	offscreenGraphics.setFont (font);
+	offscreenGraphics.setColor (Color.white);
+	offscreenGraphics.fillRect (0, 0, numXPixels, numYPixels);
+	offscreenGraphics.dispose ();
+    } // Constructor - ConsoleCanvasHeadless (ConsoleParent, int, int, int)
+
+
+    /**
+     * Does nothing.  There is no screen to flash.
+     */
+    public void invertScreen ()
+    {
+    } // invertScreen (void)
+
+
+    /**
+     * There is no onscreen image, so the offscreen image is always up to
+     * date as soon as a primitive has been drawn to it.
+     */
+    protected boolean offscreenUpdated (int x, int y, int width, int height)
+    {
+	screenChanged ();
+	return (true);
+    } // boolean offscreenUpdated (int, int, int, int)
+
+
+    /**
+     * Does nothing.  The cursor is never drawn.
+     */
+    protected void cursorChanged ()
+    {
+    } // cursorChanged (void)
+} /* ConsoleCanvasHeadless class */
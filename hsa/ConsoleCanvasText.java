@@ -6,6 +6,13 @@ package hsa;
  * The ConsoleCanvasText class implements the actual drawing surface
  * of a TextConsole object.  It holds all the text sent to the 
  * TextConsole so that the output can be scrolled through.
+ * <p>
+ * The text is kept in a fixed number of line records (the scrollback,
+ * set with the hsa.console.scrollback property) whose characters are
+ * stored one after another in a circular char arena.  Appending text or
+ * a line takes constant time, and when either the records or the arena
+ * run out, the oldest lines are discarded, so a console that runs for
+ * a long time never holds more than a fixed amount of text.
  * <p>	
  * The interface to the ConsoleCanvasText class are mainly the addNewLine
  * and addText methods.
@@ -33,9 +40,26 @@ import java.util.*;
 class ConsoleCanvasText extends ConsoleCanvas 
 {
 	/**
-	 * Variables on the text stored in the canvas.
+	 * The property giving the number of lines kept for scrolling back.
+	 */
+	protected static final String SCROLLBACK_PROPERTY = 
+		"hsa.console.scrollback";
+	protected static final int DEFAULT_SCROLLBACK = 1000;
+	
+	/**
+	 * Variables on the text stored in the canvas.  Line n (counting from
+	 * 1) is record (firstRecord + n - 1) % lineStart.length.  Its text
+	 * starts at absolute position lineStart [record] in the arena, which
+	 * is stored at index position % arena.length.  The lines are stored
+	 * contiguously, oldest first, so the text held runs from arenaStart
+	 * to arenaEnd.
 	 */	
-	private StringBuffer[] text = new StringBuffer [1000];
+	private long[] lineStart;
+	private int[] lineLength;
+	private int firstRecord = 0;
+	private char[] arena;
+	private long arenaStart = 0;
+	private long arenaEnd = 0;
 	private int numLines = 1;
 	private int topLine = 1;
 	
@@ -65,39 +89,35 @@ public ConsoleCanvasText (ConsoleParent parent, Scrollbar scrollbar,
 	
 	// Set the scrollbar beside the canvas.
 	this.scrollbar = scrollbar;
+	
+	// Allocate the line records and enough arena for every line to be
+	// a full screen width.
+	int scrollback = Math.max (rows, 
+		Integer.getInteger (SCROLLBACK_PROPERTY, DEFAULT_SCROLLBACK).intValue ());
+	lineStart = new long [scrollback];
+	lineLength = new int [scrollback];
+	arena = new char [scrollback * columns];
 		
 	// Set up the first line to be blank.
-	text [0] = new StringBuffer ();
+	lineStart [0] = 0;
+	lineLength [0] = 0;
 } // Constructor - ConsoleCanvasText (ConsoleParent, int, int, int)
 /**
- * Adds a newline to the text in the buffer, expanding the buffer if
- * necessary. It also modifies the scrollbars to take into account the
- * extra line.
+ * Adds a newline to the text in the buffer, discarding the oldest line
+ * if the buffer is full. It also modifies the scrollbars to take into
+ * account the extra line.
  */
 public synchronized void addNewLine ()
 {
-	if (numLines == text.length)
+	if (cursorVisible || !hasFocus) toggleCursor ();
+	if (numLines == lineStart.length)
 	{
-		StringBuffer[] text1 = new StringBuffer [text.length + 1000];
-		if (text1 == null)
-		{
-			// There's no more space.  Eliminate the first third
-			// of the lines.
-			int numLinesToBeEliminated = text.length / 3;
-			System.arraycopy (text, numLinesToBeEliminated, text, 0,
-				text.length - numLinesToBeEliminated);
-			numLines -= numLinesToBeEliminated;
-		}
-		else
-		{
-			System.arraycopy (text, 0, text1, 0, text.length);
-			text = text1;
-		}		
+		discardFirstLine ();
 	}
-		
-	if (cursorVisible || !hasFocus) toggleCursor ();
 	numLines++;
-	text [numLines - 1] = new StringBuffer ();
+	int record = getRecord (numLines);
+	lineStart [record] = arenaEnd;
+	lineLength [record] = 0;
 	if (cursorVisible || !hasFocus) toggleCursor ();
 	
 	if (numLines <= numRows) 
@@ -116,8 +136,8 @@ public synchronized void addNewLine ()
 	}	
 } // addNewLine (void)
 /**
- * Adds text to the buffer, expanding the buffer if necessary. It then
- * draw the text to the screen.
+ * Adds text to the buffer, discarding the oldest lines if there is no
+ * room for it. It then draw the text to the screen.
  */
 public synchronized void addText (String newText) 
 {
@@ -125,7 +145,7 @@ public synchronized void addText (String newText)
 	if (numLines - topLine >= numRows)
 	{
 		// Add to the line data base.
-		text [numLines - 1].append (newText);
+		appendToLastLine (newText);
 		
 		setTopLine (numLines - numRows + 1);
 		if (cursorVisible || !hasFocus) toggleCursor ();
@@ -137,27 +157,73 @@ public synchronized void addText (String newText)
 	g.translate (MARGIN, MARGIN);
 	g.setColor (Color.black);
 	g.setFont (font);
-	int yPos = (numLines - topLine) * fontHeight + fontHeight - fontBase;
 	if (cursorVisible || !hasFocus) toggleCursor ();
 	
-	// Add to the line data base.
-	text [numLines - 1].append (newText);
+	// Add to the line data base.  Old lines may be discarded to make
+	// room, so the position of the line is found afterwards.
+	appendToLastLine (newText);
+	int yPos = (numLines - topLine) * fontHeight + fontHeight - fontBase;
 
 	// Draw the new line.
-	g.drawString (text [numLines - 1].toString (), 0 ,yPos);
+	drawLine (g, numLines, yPos);
 	
 	if (cursorVisible || !hasFocus) toggleCursor ();
 } // addText (String)
+/**
+ * Appends text to the last line, discarding the oldest lines until the
+ * arena has room for it.  If the last line alone would be longer than
+ * the arena, the text that doesn't fit is dropped.
+ */
+private void appendToLastLine (String newText)
+{
+	int len = newText.length ();
+	while ((arenaEnd - arenaStart + len > arena.length) && (numLines > 1))
+	{
+		discardFirstLine ();
+	}
+	len = (int) Math.min (len, arena.length - (arenaEnd - arenaStart));
+	
+	int index = (int) (arenaEnd % arena.length);
+	int firstPart = Math.min (len, arena.length - index);
+	newText.getChars (0, firstPart, arena, index);
+	newText.getChars (firstPart, len, arena, 0);
+	arenaEnd += len;
+	lineLength [getRecord (numLines)] += len;
+} // appendToLastLine (String)
 /**
  * Deletes all text in the window from the start of the input (specified
  * by the call to the "markStartOfInput" method to the end of the text.
  */
 public void deleteFromStartOfInput () 
 {
-	numLines = startOfInputNumLines;
-	text [numLines - 1].setLength (startOfInputLastLineLength);
+	numLines = Math.max (1, startOfInputNumLines);
+	int record = getRecord (numLines);
+	lineLength [record] = Math.min (lineLength [record], 
+		startOfInputLastLineLength);
+	arenaEnd = lineStart [record] + lineLength [record];
 	doDraw (getGraphics ());
 } // deleteFromStartOfInput (void)
+/**
+ * Discards the oldest line, adjusting the line numbers that refer to
+ * the lines that remain.
+ */
+private void discardFirstLine ()
+{
+	firstRecord = (firstRecord + 1) % lineStart.length;
+	arenaStart = lineStart [firstRecord];
+	numLines--;
+	topLine = Math.max (1, topLine - 1);
+	if (startOfInputNumLines > 1)
+	{
+		startOfInputNumLines--;
+	}
+	else
+	{
+		// The start of the input has been discarded, so only the part
+		// of the input that remains can be deleted.
+		startOfInputLastLineLength = 0;
+	}
+} // discardFirstLine (void)
 /**
  * Redraws the entire ConsoleCanvasText including the margins.
  */
@@ -176,24 +242,47 @@ protected synchronized void doDraw (Graphics g)
 	for (int line = topLine ; line <= bottomLine ; line++)
 	{
 		yPos = (line - topLine) * fontHeight + fontHeight - fontBase;
-		g.drawString (text [line - 1].toString (), 0 ,yPos);
+		drawLine (g, line, yPos);
 	}	
 
 	if (cursorVisible || !hasFocus) toggleCursor ();
 } // doDraw (Graphics)
+/**
+ * Draws a line of text with its baseline at yPos.  A line that wraps
+ * around the end of the arena is drawn in two parts.
+ */
+private void drawLine (Graphics g, int line, int yPos)
+{
+	int record = getRecord (line);
+	int index = (int) (lineStart [record] % arena.length);
+	int len = lineLength [record];
+	int firstPart = Math.min (len, arena.length - index);
+	
+	g.drawChars (arena, index, firstPart, 0, yPos);
+	if (len > firstPart)
+	{
+		g.drawChars (arena, 0, len - firstPart, 
+			g.getFontMetrics ().charsWidth (arena, index, firstPart), yPos);
+	}
+} // drawLine (Graphics, int, int)
 /**
  * Erases the last character in the text buffer and redraws the drawing
  * surface.
  */
 public void eraseLastChar () 
 {
-	if (text [numLines - 1].length () == 0)
+	if ((lineLength [getRecord (numLines)] == 0) && (numLines > 1))
 	{
 		numLines--;
 	}
 		
 	// Remove the last character.
-	text [numLines - 1].setLength (text [numLines - 1].length () - 1);
+	int record = getRecord (numLines);
+	if (lineLength [record] > 0)
+	{
+		lineLength [record]--;
+		arenaEnd--;
+	}
 	doDraw (getGraphics ());
 } // eraseLastChar (void)
 /**
@@ -203,7 +292,7 @@ public void eraseLastChar ()
  */
 public int getCurrentColumn () 
 {
-	return text [numLines - 1].length () + 1;
+	return lineLength [getRecord (numLines)] + 1;
 } // getCurrentColumn (void)
 /**
  * Returns the current row number of the cursor.
@@ -214,6 +303,32 @@ public int getCurrentRow ()
 {
 	return numLines - topLine + 1;
 } // getCurrentColumn (void)
+/**
+ * Returns a copy of the text in the buffer, one StringBuffer per line.
+ * Used when saving or printing the contents of the window.
+ */
+protected synchronized StringBuffer[] getLines ()
+{
+	StringBuffer[] lines = new StringBuffer [numLines];
+	for (int line = 1 ; line <= numLines ; line++)
+	{
+		int record = getRecord (line);
+		lines [line - 1] = new StringBuffer (lineLength [record]);
+		for (long pos = lineStart [record] ; 
+			pos < lineStart [record] + lineLength [record] ; pos++)
+		{
+			lines [line - 1].append (arena [(int) (pos % arena.length)]);
+		}
+	}
+	return lines;
+} // StringBuffer[] getLines (void)
+/**
+ * Returns the line record holding the specified line (counting from 1).
+ */
+private int getRecord (int line)
+{
+	return (firstRecord + line - 1) % lineStart.length;
+} // int getRecord (int)
 /**
  * Marks the current end of the text buffer. Used to mark where input
  * is beginning from in case the input must be deleted.
@@ -221,7 +336,7 @@ public int getCurrentRow ()
 public void markStartOfInput () 
 {
 	startOfInputNumLines = numLines;
-	startOfInputLastLineLength = text [numLines - 1].length ();
+	startOfInputLastLineLength = lineLength [getRecord (numLines)];
 } // markStartOfInput (void)
 /**
  * Overrides the paint method to redraw the screen using doDraw
@@ -233,23 +348,25 @@ public void paint (Graphics g)
 /**
  * Prints the contents of the window on the printer.
  */
-public void printContents ()
-{
-	ConsoleSavePrint savePrint = 
-		new ConsoleSavePrint (parentConsole, text, numLines, 
-			ConsoleSavePrint.PRINT);
-	savePrint.start ();
-} // printContents (void)
-/**
- * Saves the contents of the window to a file.
- */
-public void saveContents ()
-{
-	ConsoleSavePrint savePrint = 
-		new ConsoleSavePrint (parentConsole, text, numLines, 
-			ConsoleSavePrint.SAVE);
-	savePrint.start ();
-} // saveContents (void)
+// public void printContents ()
+// {
+// 	ConsoleSavePrint savePrint = 
+// 		new ConsoleSavePrint (parentConsole, getLines (), numLines, 
+// 			ConsoleSavePrint.PRINT);
+// 	savePrint.start ();
+// } // printContents (void)
+//
+//
+// /**
+//  * Saves the contents of the window to a file.
+//  */
+// public void saveContents ()
+// {
+// 	ConsoleSavePrint savePrint = 
+// 		new ConsoleSavePrint (parentConsole, getLines (), numLines, 
+// 			ConsoleSavePrint.SAVE);
+// 	savePrint.start ();
+// } // saveContents (void)
 /**
  * Sets the top visible line in the text buffer and then redraws
  * the screen.
@@ -265,4 +382,4 @@ public synchronized void setTopLine (int newTopLine)
 		repaint ();
 	}	
 } // setTopLine (int)
-} /* ConsoleCanvasText class */
\ No newline at end of file
+} /* ConsoleCanvasText class */
@@ -0,0 +1,173 @@
+package hsa;
+
+/**
+ * The ConsoleEvent class describes a key typed in a Console, or a mouse
+ * button pressed on it: the character or position, the AWT key code or
+ * button and modifiers, and when it happened.  Events are read with
+ * Console.getEvent, pollEvent or drainEvents, which take keys from the
+ * same keyboard buffer as getChar.  getChar skips mouse presses.
+ * <p>
+ * A ConsoleEvent is a plain record that the console fills in.  A game
+ * loop can keep an array of them and have drainEvents refill it every
+ * frame, so that reading input creates no garbage.
+ * <p>
+ * Full documentation for the classes in the hsa package available at:
+ * <br>
+ *                      http://www.holtsoft.com/java/hsa_package.html
+ */
+
+public class ConsoleEvent
+{
+    /**
+     * The kinds of event, as returned by getID.  They have the same
+     * values as the AWT event ids.
+     */
+    public static final int KEY_PRESSED = java.awt.event.KeyEvent.KEY_PRESSED;
+    public static final int MOUSE_PRESSED =
+	java.awt.event.MouseEvent.MOUSE_PRESSED;
+
+    protected int id;
+    protected char keyChar;
+    // The key code of a key, or the button of a mouse press.
+    protected int keyCode;
+    protected int modifiers;
+    // Where a mouse button was pressed, in drawing surface coordinates.
+    protected int x, y;
+    // When the event happened, in System.currentTimeMillis time.
+    protected long when;
+    // When the event was placed in the keyboard buffer, in System.nanoTime time.
+    protected long queuedNanos;
+
+    /**
+     * Creates an empty event, to be filled in by drainEvents.
+     */
+    public ConsoleEvent ()
+    {
+    } // Constructor - ConsoleEvent (void)
+
+
+    /**
+     * Returns the kind of event.
+     *
+     * @return KEY_PRESSED or MOUSE_PRESSED.
+     */
+    public int getID ()
+    {
+	return (id);
+    } // int getID (void)
+
+
+    /**
+     * Returns the character typed.
+     *
+     * @return The character, as getChar would have returned it, or
+     *         java.awt.event.KeyEvent.CHAR_UNDEFINED for a mouse press.
+     */
+    public char getKeyChar ()
+    {
+	return (keyChar);
+    } // char getKeyChar (void)
+
+
+    /**
+     * Returns the AWT key code of the key, or
+     * java.awt.event.KeyEvent.VK_UNDEFINED if the key was not typed on
+     * the keyboard (it was pasted or supplied with enqueueInput) or the
+     * event is a mouse press.
+     *
+     * @return The key code.
+     */
+    public int getKeyCode ()
+    {
+	return (id == KEY_PRESSED ? keyCode : java.awt.event.KeyEvent.VK_UNDEFINED);
+    } // int getKeyCode (void)
+
+
+    /**
+     * Returns the mouse button pressed.
+     *
+     * @return The button number, as in java.awt.event.MouseEvent.getButton.
+     */
+    public int getButton ()
+    {
+	return (id == MOUSE_PRESSED ? keyCode : 0);
+    } // int getButton (void)
+
+
+    /**
+     * Returns the x coordinate of a mouse press on the drawing surface,
+     * in the same pixels as the drawing methods use.
+     *
+     * @return The x coordinate.
+     */
+    public int getX ()
+    {
+	return (x);
+    } // int getX (void)
+
+
+    /**
+     * Returns the y coordinate of a mouse press on the drawing surface.
+     *
+     * @return The y coordinate.
+     */
+    public int getY ()
+    {
+	return (y);
+    } // int getY (void)
+
+
+    /**
+     * Returns the modifier keys held down when the key was typed, as in
+     * java.awt.event.InputEvent.getModifiersEx.
+     *
+     * @return The modifiers.
+     */
+    public int getModifiers ()
+    {
+	return (modifiers);
+    } // int getModifiers (void)
+
+
+    /**
+     * Returns when the key was typed or the button pressed, as given by
+     * the AWT event's getWhen.  Subtracting it from
+     * System.currentTimeMillis gives the time since the event happened.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getWhen ()
+    {
+	return (when);
+    } // long getWhen (void)
+
+
+    /**
+     * Returns when the event was placed in the keyboard buffer, in
+     * System.nanoTime time.  More precise than getWhen for measuring
+     * how long the program took to respond.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getQueuedNanos ()
+    {
+	return (queuedNanos);
+    } // long getQueuedNanos (void)
+
+
+    /**
+     * Returns a description of the event.
+     */
+    public String toString ()
+    {
+	if (id == MOUSE_PRESSED)
+	{
+	    return ("ConsoleEvent[MOUSE_PRESSED,x=" + x + ",y=" + y +
+		    ",button=" + keyCode + ",modifiers=" + modifiers +
+		    ",when=" + when + "]");
+	}
+	return ("ConsoleEvent[KEY_PRESSED,keyChar=" + (int) keyChar +
+		",keyCode=" + keyCode + ",modifiers=" + modifiers +
+		",when=" + when + "]");
+    } // String toString (void)
+} /* ConsoleEvent class */
@@ -21,6 +21,7 @@ package hsa;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.Frame;
+import java.awt.GraphicsEnvironment;
 import java.awt.Panel;
 import java.awt.Point;
 import java.awt.Toolkit;
@@ -29,7 +30,8 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 
 abstract class ConsoleParent
-    implements ActionListener, FocusListener, KeyListener, WindowListener
+    implements ActionListener, FocusListener, KeyListener, MouseListener,
+	WindowListener
 {
     //
     // Constants
@@ -46,6 +48,12 @@ abstract class ConsoleParent
     protected static final String DEFAULT_TITLE = "Console";
     // The size of a tab in spaces.
     protected final static int TAB_SIZE = 8;
+    // System properties that control a headless console.  If
+    // hsa.console.headless is true (or AWT itself is headless) the console
+    // draws only to an offscreen image.  hsa.console.input names a file
+    // whose contents are placed in the keyboard buffer as though typed.
+    protected static final String HEADLESS_PROPERTY = "hsa.console.headless";
+    protected static final String INPUT_PROPERTY = "hsa.console.input";
 
     //
     // Fields
@@ -61,8 +69,7 @@ abstract class ConsoleParent
     // Keyboard buffer variables
     protected static final int BUFFER_SIZE = 2048;
     protected static final int EMPTY_BUFFER = -1;
-    protected char[] kbdBuffer = new char [BUFFER_SIZE];
-    protected int kbdBufferHead = 0, kbdBufferTail = 0;
+    protected KeyboardBuffer kbdBuffer = new KeyboardBuffer ();
     protected char[] lineBuffer = new char [BUFFER_SIZE];
     protected int lineBufferHead = 0, lineBufferTail = 0;
     protected int ungotChar = EMPTY_BUFFER;
@@ -104,6 +111,19 @@ abstract class ConsoleParent
 	maxCol = columns;
 	maxRow = rows;
 
+	// Place any scripted input in the keyboard buffer.
+	String inputFileName = System.getProperty (INPUT_PROPERTY);
+	if (inputFileName != null)
+	{
+	    loadInput (inputFileName);
+	}
+
+	// A headless console has no window to display.
+	if (isHeadless ())
+	{
+	    return;
+	}
+
 	// Create the Frame in which the Console will be displayed.
 	window = new ConsoleFrame (this, consoleCanvasPanelInner);
 
@@ -173,7 +193,10 @@ abstract class ConsoleParent
     public void close ()
     {
 	consoleCanvas.killCursorThread ();
-	window.dispose ();
+	if (window != null)
+	{
+	    window.dispose ();
+	}
     } // close (void)
 
 
@@ -183,10 +206,57 @@ abstract class ConsoleParent
      */
     protected void enableButtons (boolean enable)
     {
-	window.enableButtons (enable);
+	if (window != null)
+	{
+	    window.enableButtons (enable);
+	}
     } // enableButtons (boolean)
 
 
+    /**
+     * Places the text in the keyboard buffer as though it had been typed.
+     * This is how input is supplied to a headless console, although it
+     * works for any console.  Characters that could not be typed are
+     * ignored.
+     *
+     * @param text The text to be placed in the keyboard buffer.
+     * @return Whether there was room in the keyboard buffer for the text.
+     */
+    public boolean enqueueInput (String text)
+    {
+	char[] chars = new char [text.length ()];
+	int length = 0;
+	for (int cnt = 0 ; cnt < text.length () ; cnt++)
+	{
+	    char ch = text.charAt (cnt);
+	    if (((' ' <= ch) && (ch <= '~')) || (ch == '\b') ||
+		    (ch == '\t') || (ch == '\n'))
+	    {
+		chars [length++] = ch;
+	    }
+	}
+
+	// The keyboard buffer wakes up anything waiting for input.
+	return (kbdBuffer.offer (chars, 0, length));
+    } // boolean enqueueInput (String)
+
+
+    /**
+     * Places a press of the left mouse button in the keyboard buffer as
+     * though it had been made on the drawing surface.  Like enqueueInput,
+     * this is how mouse input is supplied to a headless console.
+     *
+     * @param x The x coordinate of the press on the drawing surface.
+     * @param y The y coordinate of the press on the drawing surface.
+     * @return Whether there was room in the keyboard buffer.
+     */
+    public boolean enqueueMousePress (int x, int y)
+    {
+	return (kbdBuffer.offerMousePress (x, y, MouseEvent.BUTTON1, 0,
+		System.currentTimeMillis ()));
+    } // boolean enqueueMousePress (int, int)
+
+
     /**
      * Sets the focus to the invisible button and then the console canvas.
      * This is necessary as a work-around to a bug in VisualAge for Java,
@@ -194,7 +264,7 @@ abstract class ConsoleParent
      * another button a focus. Called by the system when the Console gains
      * focus.
      */
-    public synchronized void focusGained (FocusEvent e)
+    public void focusGained (FocusEvent e)
     {
 	consoleCanvas.requestFocus ();
     } // focusGained (FocusEvent)
@@ -203,17 +273,18 @@ abstract class ConsoleParent
     /**
      * Does nothing.   Called by the system when the Console loses focus.
      */
-    public synchronized void focusLost (FocusEvent e)
+    public void focusLost (FocusEvent e)
     {
     } // focusLost (FocusEvent)
 
 
     /**
-     * Places a keystroke in the keyboard buffer. It is synchronized so that
-     * there can't be a problem with input being taken off the keyboard buffer
-     * and placed on the keyboard buffer at the same time.
+     * Places a keystroke in the keyboard buffer.  It is not synchronized:
+     * the keyboard buffer can have keys added and taken off at the same
+     * time without a lock, so a program waiting for input never holds up
+     * the event dispatch thread.
      */
-    public synchronized void keyPressed (KeyEvent e)
+    public void keyPressed (KeyEvent e)
     {
 	// This is a workaround for a bug where the canvas isn't given
 	// focus back!  The frame appears to have it, however.
@@ -228,13 +299,13 @@ abstract class ConsoleParent
 	if (((' ' <= ch) && (ch <= '~')) || (ch == '\b') ||
 		(ch == '\t') || (ch == '\n') || (ch == '\025'))
 	{
-	    // Place the keystroke into the keyboard buffer.
-	    kbdBuffer [kbdBufferHead] = e.getKeyChar ();
-	    kbdBufferHead = (kbdBufferHead + 1) % kbdBuffer.length;
-
-	    // The following statements wakes up any processes that are
-	    // sleeping while waiting for heyboard input.
-	    notify ();
+	    // Place the keystroke into the keyboard buffer, which wakes up
+	    // anything waiting for keyboard input.  A full buffer drops it.
+	    if (!kbdBuffer.offer (ch, e.getKeyCode (), e.getModifiersEx (),
+		    e.getWhen ()))
+	    {
+		consoleCanvas.invertScreen ();
+	    }
 	}
 
 	// Handke Ctrl+S to save.
@@ -265,27 +336,22 @@ abstract class ConsoleParent
 	    {
 		String s =
 		    (String) (clipData.getTransferData (DataFlavor.stringFlavor));
-		int bufferUsed = (kbdBufferHead - kbdBufferTail + kbdBuffer.length) % kbdBuffer.length;
-		if (s.length () > kbdBuffer.length - bufferUsed)
-		{
-		    // Current keyboard buffer isn't big enough.
-		    consoleCanvas.invertScreen ();
-		}
-		else
+		char[] chars = new char [s.length ()];
+		int length = 0;
+		for (int cnt = 0 ; cnt < s.length () ; cnt++)
 		{
-		    for (int cnt = 0 ; cnt < s.length () ; cnt++)
+		    ch = s.charAt (cnt);
+
+		    // Some systems seem to mix up CR and LF.
+		    if (((' ' <= ch) && (ch <= '~')) || (ch == '\n'))
 		    {
-			// Place the keystroke into the keyboard buffer.
-			ch = s.charAt (cnt);
-
-			// Some systems seem to mix up CR and LF.
-			if (((' ' <= ch) && (ch <= '~')) || (ch == '\n'))
-			{
-			    kbdBuffer [kbdBufferHead] = ch;
-			    kbdBufferHead = (kbdBufferHead + 1) % kbdBuffer.length;
-			}
+			chars [length++] = ch;
 		    }
-		    notify ();
+		}
+		if (!kbdBuffer.offer (chars, 0, length))
+		{
+		    // Current keyboard buffer isn't big enough.
+		    consoleCanvas.invertScreen ();
 		}
 	    }
 	    catch (Exception exception)
@@ -317,6 +383,64 @@ abstract class ConsoleParent
     } // keyTyped (KeyEvent)
 
 
+    /**
+     * Returns whether consoles should be created without a window.
+     *
+     * @return Whether consoles should be headless.
+     */
+    protected static boolean isHeadless ()
+    {
+	return Boolean.getBoolean (HEADLESS_PROPERTY) ||
+	    GraphicsEnvironment.isHeadless ();
+    } // boolean isHeadless (void)
+
+
+    /**
+     * Reports an error the program cannot recover from and terminates it.
+     * A console with a window uses a FatalError dialog box.  A headless
+     * console writes the error to standard error instead.
+     *
+     * @param message The error to be reported.
+     */
+    private void fatalError (String message)
+    {
+	if (isHeadless ())
+	{
+	    System.err.println ("Fatal Error: " + message);
+	    System.exit (1);
+	}
+	else
+	{
+	    new FatalError (message, window);
+	}
+    } // fatalError (String)
+
+
+    /**
+     * Places the contents of a file in the keyboard buffer.  Used to
+     * script the input of a console.
+     *
+     * @param fileName The name of the file containing the input.
+     */
+    private void loadInput (String fileName)
+    {
+	try
+	{
+	    byte[] contents = java.nio.file.Files.readAllBytes (
+		    java.nio.file.Paths.get (fileName));
+	    if (!enqueueInput (new String (contents, "US-ASCII")))
+	    {
+		fatalError ("Input in " + fileName +
+			" does not fit in the keyboard buffer");
+	    }
+	}
+	catch (java.io.IOException e)
+	{
+	    fatalError ("Unable to read input from " + fileName);
+	}
+    } // loadInput (String)
+
+
     /**
      * This method is invoked if the "main" method appears to have
      * stopped executing.  This helps the user realize when the program
@@ -324,11 +448,70 @@ abstract class ConsoleParent
      */
     protected void mainStopped ()
     {
+	if (window == null)
+	{
+	    return;
+	}
 	window.mainStopped ();
 	setWindowTitle ("Finished Execution");
     } // mainStopped (void)
 
 
+    /**
+     * Does nothing.  Called by the system when the mouse is clicked on
+     * the console.  Presses are handled by mousePressed instead, since a
+     * click is not reported if the mouse moves while the button is down.
+     */
+    public void mouseClicked (MouseEvent e)
+    {
+	// This event not handled.
+    } // mouseClicked (MouseEvent)
+
+
+    /**
+     * Does nothing.  Called by the system when the mouse enters the
+     * console.
+     */
+    public void mouseEntered (MouseEvent e)
+    {
+	// This event not handled.
+    } // mouseEntered (MouseEvent)
+
+
+    /**
+     * Does nothing.  Called by the system when the mouse leaves the
+     * console.
+     */
+    public void mouseExited (MouseEvent e)
+    {
+	// This event not handled.
+    } // mouseExited (MouseEvent)
+
+
+    /**
+     * Places a mouse press on the console canvas in the keyboard buffer,
+     * in drawing surface coordinates, for getEvent and pollEvent to read.
+     */
+    public void mousePressed (MouseEvent e)
+    {
+	if (!kbdBuffer.offerMousePress (e.getX () - ConsoleCanvas.MARGIN,
+		e.getY () - ConsoleCanvas.MARGIN, e.getButton (),
+		e.getModifiersEx (), e.getWhen ()))
+	{
+	    consoleCanvas.invertScreen ();
+	}
+    } // mousePressed (MouseEvent)
+
+
+    /**
+     * Does nothing.  Called by the system when a mouse button is released.
+     */
+    public void mouseReleased (MouseEvent e)
+    {
+	// This event not handled.
+    } // mouseReleased (MouseEvent)
+
+
     /**
      * Writes the text representation of an 8-bit integer (a "byte") to
      * the Console.
@@ -1005,7 +1188,10 @@ abstract class ConsoleParent
      */
     protected void quitProgram ()
     {
-	window.setVisible (false);
+	if (window != null)
+	{
+	    window.setVisible (false);
+	}
 	System.exit (0);
     } // quitProgram (void)
 
@@ -1032,7 +1218,7 @@ abstract class ConsoleParent
 	}
 	else
 	{
-	    new FatalError ("Unable to convert \"" + s + "\" to a boolean", window);
+	    fatalError ("Unable to convert \"" + s + "\" to a boolean");
 	    // Never reaches here
 	}
 	return (false);
@@ -1055,7 +1241,7 @@ abstract class ConsoleParent
 	}
 	catch (NumberFormatException e)
 	{
-	    new FatalError ("Unable to convert \"" + s + "\" to a byte", window);
+	    fatalError ("Unable to convert \"" + s + "\" to a byte");
 	    // Never reaches here
 	}
 	return (0);
@@ -1089,7 +1275,7 @@ abstract class ConsoleParent
 	}
 	catch (NumberFormatException e)
 	{
-	    new FatalError ("Unable to convert \"" + s + "\" to a double", window);
+	    fatalError ("Unable to convert \"" + s + "\" to a double");
 	    // Never reaches here
 	}
 	return (0.0);
@@ -1114,7 +1300,7 @@ abstract class ConsoleParent
 	}
 	catch (NumberFormatException e)
 	{
-	    new FatalError ("Unable to convert \"" + s + "\" to a float", window);
+	    fatalError ("Unable to convert \"" + s + "\" to a float");
 	    // Never reaches here
 	}
 	return ((float) 0.0);
@@ -1138,7 +1324,7 @@ abstract class ConsoleParent
 	}
 	catch (NumberFormatException e)
 	{
-	    new FatalError ("Unable to convert \"" + s + "\" to a int", window);
+	    fatalError ("Unable to convert \"" + s + "\" to a int");
 	    // Never reaches here
 	}
 	return (0);
@@ -1192,7 +1378,7 @@ abstract class ConsoleParent
 	}
 	catch (NumberFormatException e)
 	{
-	    new FatalError ("Unable to convert \"" + s + "\" to a long", window);
+	    fatalError ("Unable to convert \"" + s + "\" to a long");
 	    // Never reaches here
 	}
 	return (0);
@@ -1215,7 +1401,7 @@ abstract class ConsoleParent
 	}
 	catch (NumberFormatException e)
 	{
-	    new FatalError ("Unable to convert \"" + s + "\" to a short", window);
+	    fatalError ("Unable to convert \"" + s + "\" to a short");
 	    // Never reaches here
 	}
 	return (0);
@@ -1261,7 +1447,7 @@ abstract class ConsoleParent
 		ch = readChar ();
 		if (ch == '\n')
 		{
-		    new FatalError ("No terminating quote for quoted string");
+		    fatalError ("No terminating quote for quoted string");
 		    // Never reaches here.
 		}
 	    }
@@ -1302,7 +1488,10 @@ abstract class ConsoleParent
      */
     protected void setWindowTitle (String s)
     {
-	window.setTitle (baseWindowTitle + " - " + s);
+	if (window != null)
+	{
+	    window.setTitle (baseWindowTitle + " - " + s);
+	}
     } // setWindowTitle
     
     
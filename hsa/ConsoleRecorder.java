@@ -0,0 +1,272 @@
+package hsa;
+
+/**
+ * Internal to hsa package.
+ * <p>
+ * The ConsoleRecorder class records a Console session as a sequence of
+ * numbered PNG files in a directory, for bug reports and tutorials.
+ * <p>
+ * The canvas calls screenChanged each time a change to the offscreen
+ * image reaches the screen (for the buffered canvas, each time a frame
+ * with a change in it is presented).  That only sets a flag and, if no
+ * capture is already waiting, schedules one on the recorder's own
+ * capture thread, no sooner than a frame period after the last one.
+ * The capture copies the offscreen image (which holds the canvas lock
+ * only for the length of the copy) and hands it to a small pool of
+ * encoder threads.  Nothing is captured while the screen is unchanged,
+ * and neither the game thread nor the cursor blink ever waits for a
+ * frame to be captured, encoded or written.
+ * <p>
+ * The encoders' queue is bounded.  When it is full the frame is
+ * dropped rather than queued, so a slow disk costs frames, not memory
+ * or responsiveness.  Since unchanged and dropped frames are not
+ * written, the frames are not evenly spaced in time.  When recording
+ * stops, the recorder writes frames.txt, which lists each frame with
+ * how long it was on the screen in the format of ffmpeg's concat
+ * demuxer, e.g.
+ * <pre>
+ *     ffmpeg -f concat -i frames.txt session.mp4
+ * </pre>
+ * <p>
+ * Full documentation for the classes in the hsa package available at:
+ * <br>
+ *                      http://www.holtsoft.com/java/hsa_package.html
+ */
+
+import java.awt.image.*;
+import java.io.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+class ConsoleRecorder implements Runnable
+{
+    // The most times per second the screen is captured.
+    protected static final int FRAMES_PER_SECOND = 60;
+    // The number of captured frames that may wait to be encoded.
+    protected static final int QUEUE_SIZE = 8;
+    // The name of the frame list written when recording stops.
+    protected static final String LIST_FILE_NAME = "frames.txt";
+    // The name of the thread that captures frames.
+    protected static final String CAPTURE_THREAD_NAME =
+	"Console Recorder Capture";
+
+    /**
+     * Variables for capturing frames.  Only the capture thread touches
+     * the frame lists while recording.
+     */
+    private ConsoleCanvasGraphics canvas;
+    private File directory;
+    private ScheduledExecutorService capturer;
+    // Whether a capture has been scheduled and not yet started.
+    private AtomicBoolean capturePending = new AtomicBoolean ();
+    // The earliest System.nanoTime at which the next capture may start.
+    private volatile long nextCapture;
+    // The file name and capture time of each frame handed to the encoders.
+    private ArrayList<String> frameNames = new ArrayList<String> ();
+    private ArrayList<Long> frameTimes = new ArrayList<Long> ();
+    private int framesDropped = 0;
+    private long startTime;
+
+    /**
+     * Variables for encoding frames.
+     */
+    private ThreadPoolExecutor encoders;
+    private AtomicInteger framesWritten = new AtomicInteger ();
+    private AtomicInteger writeErrors = new AtomicInteger ();
+
+    /**
+     * Creates a recorder and starts capturing the canvas.
+     *
+     * @param canvas The canvas to record.
+     * @param directory The directory to write the frames to.  It is
+     *        created if it does not exist.
+     */
+    public ConsoleRecorder (ConsoleCanvasGraphics canvas, File directory)
+    {
+	this.canvas = canvas;
+	this.directory = directory;
+	directory.mkdirs ();
+
+	// Leave a processor for the game.
+	int threads = Math.max (1,
+		Runtime.getRuntime ().availableProcessors () / 2);
+	encoders = new ThreadPoolExecutor (threads, threads, 0,
+		TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable> (QUEUE_SIZE),
+		new ThreadFactory ()
+	{
+	    public Thread newThread (Runnable task)
+	    {
+		Thread thread = new Thread (task, "Console Recorder");
+		thread.setDaemon (true);
+		thread.setPriority (Thread.MIN_PRIORITY);
+		return (thread);
+	    }
+	}
+	);
+
+	capturer = Executors.newSingleThreadScheduledExecutor (
+		new ThreadFactory ()
+	{
+	    public Thread newThread (Runnable task)
+	    {
+		Thread thread = new Thread (task, CAPTURE_THREAD_NAME);
+		thread.setDaemon (true);
+		return (thread);
+	    }
+	}
+	);
+
+	startTime = System.nanoTime ();
+	nextCapture = startTime;
+	// Capture what is on the screen now, then whenever it changes.
+	screenChanged ();
+	canvas.setRecorder (this);
+    } // Constructor - ConsoleRecorder (ConsoleCanvasGraphics, File)
+
+
+    /**
+     * Called by the canvas whenever the screen has changed.  Schedules a
+     * capture unless one is already waiting, which will see this change
+     * too.  Never blocks, since the canvas may be holding its lock.
+     */
+    protected void screenChanged ()
+    {
+	if (!capturePending.compareAndSet (false, true))
+	{
+	    return;
+	}
+	try
+	{
+	    capturer.schedule (this,
+		    Math.max (0, nextCapture - System.nanoTime ()),
+		    TimeUnit.NANOSECONDS);
+	}
+	catch (RejectedExecutionException e)
+	{
+	    // Recording has stopped.
+	}
+    } // screenChanged (void)
+
+
+    /**
+     * The capture task.  Copies the screen and queues it to be written
+     * if there is room in the queue.
+     */
+    public void run ()
+    {
+	// Changes made from here on schedule another capture.
+	capturePending.set (false);
+	nextCapture = System.nanoTime () + 1000000000L / FRAMES_PER_SECOND;
+
+	BufferedImage frame = canvas.getScreenImage ();
+	long time = System.nanoTime () - startTime;
+
+	if (encoders.getQueue ().remainingCapacity () == 0)
+	{
+	    // The encoders are behind.  The previous frame stays on the
+	    // screen longer in the recording, and the screen is captured
+	    // again a frame later in case nothing else changes it.
+	    framesDropped++;
+	    screenChanged ();
+	    return;
+	}
+
+	final BufferedImage image = frame;
+	final File file = new File (directory, "frame" +
+		new DecimalFormat ("000000").format (frameNames.size () + 1) +
+		".png");
+	encoders.execute (new Runnable ()
+	{
+	    public void run ()
+	    {
+		try
+		{
+		    javax.imageio.ImageIO.write (image, "png", file);
+		    framesWritten.incrementAndGet ();
+		}
+		catch (IOException e)
+		{
+		    if (writeErrors.getAndIncrement () == 0)
+		    {
+			System.err.println ("Unable to save frame " +
+				file.getName () + ": " + e);
+		    }
+		}
+	    }
+	}
+	);
+	frameNames.add (file.getName ());
+	frameTimes.add (Long.valueOf (time));
+    } // run (void)
+
+
+    /**
+     * Stops capturing, waits for the frames already captured to be
+     * written and writes the frame list.
+     *
+     * @return A one line summary of the recording.
+     */
+    public String stop ()
+    {
+	canvas.setRecorder (null);
+	// Let a capture already waiting or running finish before reading
+	// its results.
+	capturer.shutdown ();
+	try
+	{
+	    capturer.awaitTermination (1, TimeUnit.MINUTES);
+	}
+	catch (InterruptedException e)
+	{
+	}
+	long endTime = System.nanoTime () - startTime;
+
+	encoders.shutdown ();
+	try
+	{
+	    encoders.awaitTermination (1, TimeUnit.MINUTES);
+	}
+	catch (InterruptedException e)
+	{
+	}
+	writeFrameList (endTime);
+
+	return (framesWritten.get () + " frames written, " + framesDropped +
+		" dropped, " + writeErrors.get () + " write errors, to " +
+		directory);
+    } // String stop (void)
+
+
+    /**
+     * Writes the list of frames with the time each was on the screen.
+     */
+    protected void writeFrameList (long endTime)
+    {
+	File file = new File (directory, LIST_FILE_NAME);
+	try
+	{
+	    PrintWriter out = new PrintWriter (new FileWriter (file));
+	    for (int i = 0 ; i < frameNames.size () ; i++)
+	    {
+		long start = frameTimes.get (i);
+		long end = (i + 1 < frameNames.size ()) ?
+		    frameTimes.get (i + 1) : endTime;
+		out.println ("file '" + frameNames.get (i) + "'");
+		out.println ("duration " + (end - start) / 1e9);
+	    }
+	    // The concat demuxer ignores the duration of the last entry
+	    // unless the file is repeated.
+	    if (frameNames.size () > 0)
+	    {
+		out.println ("file '" + frameNames.get (frameNames.size () - 1) + "'");
+	    }
+	    out.close ();
+	}
+	catch (IOException e)
+	{
+	    System.err.println ("Unable to save " + file + ": " + e);
+	}
+    } // writeFrameList (long)
+} /* ConsoleRecorder class */
@@ -0,0 +1,382 @@
+package hsa;
+
+/**
+ * Internal to hsa package.
+ * <p>
+ * The KeyboardBuffer class holds the keystrokes typed in a Console, and
+ * the mouse presses made on it, until the program reads them.  It is a single producer, single consumer ring
+ * buffer: the event dispatch thread adds keys and the program's thread
+ * takes them, and neither ever holds a lock the other needs.
+ * <p>
+ * head is only written by the producer and tail only by the consumer.
+ * Both are volatile, so a key written to the array before head is
+ * advanced is visible to the consumer once it sees the new head.  A
+ * consumer with nothing to read parks itself and the producer unparks
+ * it after adding a key.  Additions made from more than one thread
+ * (pasting, or enqueueInput from the program) are serialized by a lock
+ * that only producers take.
+ * <p>
+ * Each key is stored with its AWT key code, modifiers and event time, so
+ * that it can be read as a ConsoleEvent as well as a bare char.  Mouse
+ * presses share the same ring so that events are read in the order they
+ * happened, but are skipped by take and peek, which only read keys.  It is
+ * also stamped with the time it was added, and the time it waited before
+ * being taken is recorded so that key to handler latency can be read
+ * with latencySummary.
+ * <p>
+ * Full documentation for the classes in the hsa package available at:
+ * <br>
+ *                      http://www.holtsoft.com/java/hsa_package.html
+ */
+
+import java.awt.event.*;
+import java.util.concurrent.locks.*;
+
+class KeyboardBuffer
+{
+    // Must be a power of two.
+    protected static final int CAPACITY = 2048;
+    private static final int MASK = CAPACITY - 1;
+
+    // ConsoleEvent.KEY_PRESSED or ConsoleEvent.MOUSE_PRESSED.
+    private final int[] ids = new int [CAPACITY];
+    private final char[] keys = new char [CAPACITY];
+    // The AWT key code of each key, or the button of each mouse press.
+    private final int[] keyCodes = new int [CAPACITY];
+    private final int[] modifiers = new int [CAPACITY];
+    // Where each mouse press was, in drawing surface coordinates.
+    private final int[] xs = new int [CAPACITY];
+    private final int[] ys = new int [CAPACITY];
+    // The getWhen time of each event.
+    private final long[] whens = new long [CAPACITY];
+    // The System.nanoTime at which each event was added.
+    private final long[] times = new long [CAPACITY];
+    // The number of events ever added and ever taken.
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    // The consumer, while it is parked waiting for an event.
+    private volatile Thread waiter = null;
+    // Serializes producers.
+    private final Object producerLock = new Object ();
+
+    /**
+     * Latency statistics.  Only written by the consumer.
+     */
+    private volatile long keysTaken = 0;
+    private volatile long totalLatency = 0;
+    private volatile long maxLatency = 0;
+
+
+    /**
+     * Returns whether there is a key, rather than only mouse presses,
+     * waiting to be read.
+     */
+    public boolean hasKey ()
+    {
+	long end = head;
+	for (long cnt = tail ; cnt < end ; cnt++)
+	{
+	    if (ids [(int) cnt & MASK] == ConsoleEvent.KEY_PRESSED)
+	    {
+		return (true);
+	    }
+	}
+	return (false);
+    } // boolean hasKey (void)
+
+
+    /**
+     * Adds a key typed on the keyboard.
+     *
+     * @param ch The key.
+     * @param keyCode The AWT key code.
+     * @param keyModifiers The extended modifiers.
+     * @param when The time the key was typed, as given by KeyEvent.getWhen.
+     * @return Whether there was room for it.
+     */
+    public boolean offer (char ch, int keyCode, int keyModifiers, long when)
+    {
+	synchronized (producerLock)
+	{
+	    if (head - tail == CAPACITY)
+	    {
+		return (false);
+	    }
+	    put (ConsoleEvent.KEY_PRESSED, ch, keyCode, keyModifiers, when,
+		    0, 0);
+	}
+	wakeConsumer ();
+	return (true);
+    } // boolean offer (char, int, int, long)
+
+
+    /**
+     * Adds a mouse press.
+     *
+     * @param x The x coordinate of the press on the drawing surface.
+     * @param y The y coordinate of the press on the drawing surface.
+     * @param button The AWT button number.
+     * @param keyModifiers The extended modifiers.
+     * @param when The time of the press, as given by MouseEvent.getWhen.
+     * @return Whether there was room for it.
+     */
+    public boolean offerMousePress (int x, int y, int button,
+	    int keyModifiers, long when)
+    {
+	synchronized (producerLock)
+	{
+	    if (head - tail == CAPACITY)
+	    {
+		return (false);
+	    }
+	    put (ConsoleEvent.MOUSE_PRESSED, KeyEvent.CHAR_UNDEFINED, button,
+		    keyModifiers, when, x, y);
+	}
+	wakeConsumer ();
+	return (true);
+    } // boolean offerMousePress (int, int, int, int, long)
+
+
+    /**
+     * Adds several keys that were not typed on the keyboard, either all
+     * of them or none.
+     *
+     * @param chars The keys.
+     * @return Whether there was room for all of them.
+     */
+    public boolean offer (char[] chars, int offset, int length)
+    {
+	long when = System.currentTimeMillis ();
+	synchronized (producerLock)
+	{
+	    if (length > CAPACITY - (head - tail))
+	    {
+		return (false);
+	    }
+	    for (int cnt = 0 ; cnt < length ; cnt++)
+	    {
+		put (ConsoleEvent.KEY_PRESSED, chars [offset + cnt],
+			KeyEvent.VK_UNDEFINED, 0, when, 0, 0);
+	    }
+	}
+	wakeConsumer ();
+	return (true);
+    } // boolean offer (char[], int, int)
+
+
+    /**
+     * Stores an event and publishes it to the consumer.
+     */
+    private void put (int id, char ch, int keyCode, int keyModifiers,
+	    long when, int x, int y)
+    {
+	int index = (int) head & MASK;
+	ids [index] = id;
+	keys [index] = ch;
+	keyCodes [index] = keyCode;
+	modifiers [index] = keyModifiers;
+	whens [index] = when;
+	xs [index] = x;
+	ys [index] = y;
+	times [index] = System.nanoTime ();
+	head = head + 1;
+    } // put (int, char, int, int, long, int, int)
+
+
+    /**
+     * Unparks the consumer if it is waiting.
+     */
+    private void wakeConsumer ()
+    {
+	Thread thread = waiter;
+	if (thread != null)
+	{
+	    LockSupport.unpark (thread);
+	}
+    } // wakeConsumer (void)
+
+
+    /**
+     * Returns the next key without removing it.  Must only be called by
+     * the thread that takes keys.
+     *
+     * @return The next key, or -1 if there are none or the next event is
+     *         a mouse press.
+     */
+    public int peek ()
+    {
+	if ((head == tail) ||
+		(ids [(int) tail & MASK] != ConsoleEvent.KEY_PRESSED))
+	{
+	    return (-1);
+	}
+	return (keys [(int) tail & MASK]);
+    } // int peek (void)
+
+
+    /**
+     * Removes and returns the next key, waiting for one to be added if
+     * there are none.  Mouse presses before it are discarded.  Must only
+     * be called by one thread at a time.
+     *
+     * @return The next key.
+     */
+    public char take ()
+    {
+	while (true)
+	{
+	    awaitEvent (-1);
+	    int index = (int) tail & MASK;
+	    boolean isKey = (ids [index] == ConsoleEvent.KEY_PRESSED);
+	    char ch = keys [index];
+	    remove (null);
+	    if (isKey)
+	    {
+		return (ch);
+	    }
+	}
+    } // char take (void)
+
+
+    /**
+     * Removes the next event and fills it in, waiting for one to be
+     * added if there are none.  Must only be called by
+     * one thread at a time.
+     *
+     * @param event The event to fill in.
+     * @param timeoutNanos How long to wait.  0 does not wait at all and
+     *        any negative value waits for ever.
+     * @return Whether there was an event.
+     */
+    public boolean poll (ConsoleEvent event, long timeoutNanos)
+    {
+	if (!awaitEvent (timeoutNanos))
+	{
+	    return (false);
+	}
+	remove (event);
+	return (true);
+    } // boolean poll (ConsoleEvent, long)
+
+
+    /**
+     * Removes all the events waiting, up to the length of the array, and
+     * fills them in.  Never waits.
+     *
+     * @param events The events to fill in.
+     * @return The number of events filled in.
+     */
+    public int drain (ConsoleEvent[] events)
+    {
+	// Events added while draining are left for next time.
+	int count = (int) Math.min (head - tail, events.length);
+	for (int cnt = 0 ; cnt < count ; cnt++)
+	{
+	    remove (events [cnt]);
+	}
+	return (count);
+    } // int drain (ConsoleEvent[])
+
+
+    /**
+     * Waits until there is an event to take.
+     *
+     * @param timeoutNanos How long to wait, or a negative value to wait
+     *        for ever.
+     * @return Whether there is an event.
+     */
+    private boolean awaitEvent (long timeoutNanos)
+    {
+	if (head != tail)
+	{
+	    return (true);
+	}
+	if (timeoutNanos == 0)
+	{
+	    return (false);
+	}
+
+	long deadline = System.nanoTime () + timeoutNanos;
+	waiter = Thread.currentThread ();
+	// Checking again after setting waiter means an event added in
+	// between is never missed: either we see it here, or the
+	// producer sees waiter and unparks us.
+	while (head == tail)
+	{
+	    if (timeoutNanos < 0)
+	    {
+		LockSupport.park (this);
+	    }
+	    else
+	    {
+		long remaining = deadline - System.nanoTime ();
+		if (remaining <= 0)
+		{
+		    break;
+		}
+		LockSupport.parkNanos (this, remaining);
+	    }
+	    // Interrupts are ignored, as they always have been while
+	    // waiting for a key, but would stop park from parking.
+	    Thread.interrupted ();
+	}
+	waiter = null;
+	return (head != tail);
+    } // boolean awaitEvent (long)
+
+
+    /**
+     * Takes the next event, which must be there, filling in event with
+     * it if event is not null.
+     */
+    private void remove (ConsoleEvent event)
+    {
+	int index = (int) tail & MASK;
+	if (event != null)
+	{
+	    event.id = ids [index];
+	    event.keyChar = keys [index];
+	    event.keyCode = keyCodes [index];
+	    event.modifiers = modifiers [index];
+	    event.when = whens [index];
+	    event.x = xs [index];
+	    event.y = ys [index];
+	    event.queuedNanos = times [index];
+	}
+	// Mouse presses, which take discards, aren't counted.
+	if (ids [index] == ConsoleEvent.KEY_PRESSED)
+	{
+	    recordLatency (System.nanoTime () - times [index]);
+	}
+	tail = tail + 1;
+    } // remove (ConsoleEvent)
+
+
+    /**
+     * Records how long a key waited to be taken.  Only keys are counted.
+     */
+    private void recordLatency (long nanos)
+    {
+	keysTaken++;
+	totalLatency += nanos;
+	if (nanos > maxLatency)
+	{
+	    maxLatency = nanos;
+	}
+    } // recordLatency (long)
+
+
+    /**
+     * Returns a one line summary of how long keys waited to be read.
+     *
+     * @return The number of keys read and the mean and maximum wait in
+     *         milliseconds.
+     */
+    public String latencySummary ()
+    {
+	long taken = keysTaken;
+	double mean = (taken == 0) ? 0 : totalLatency / (double) taken / 1e6;
+	return (taken + " keys, mean latency " + String.format ("%.3f", mean) +
+		" ms, max " + String.format ("%.3f", maxLatency / 1e6) + " ms");
+    } // String latencySummary (void)
+} /* KeyboardBuffer class */
@@ -0,0 +1,13 @@
+package hsa;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Changes a rectangle of a console's drawing surface in place.  Passed to
+ * Console.composite, which calls it with a copy of the rectangle while no
+ * other thread can draw on the console, and then draws the copy back.
+ */
+public abstract class ScreenCompositor
+{
+    public abstract void composite (BufferedImage screen);
+} // ScreenCompositor class